@@ -1,53 +1,137 @@
 package enigma;
 
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
  *  @author P. N. Hilfinger
  */
 class Alphabet {
+    /** Largest span of character codes indexed directly by _dense.  Wider
+     *  alphabets fall back to the open-addressed _keys/_values table. */
+    private static final int MAX_DENSE_SPAN = 1 << 12;
+
     /** Custom alphabet. */
     private String newalph;
+    /** The characters of newalph, by index. */
+    private final char[] _chars;
+    /** Smallest character in the alphabet. */
+    private char _lo;
+    /** When non-null, _dense[ch - _lo] is the index of CH, or -1. */
+    private int[] _dense;
+    /** Open-addressed hash table of characters, used when _dense is
+     *  null. */
+    private char[] _keys;
+    /** Indices of the characters in _keys, or -1 for an empty slot. */
+    private int[] _values;
+
     /** Constructor. Takes in either a range or a String of chars.
      * @param chrs to go into alphabet. */
     Alphabet(String chrs) {
-        if (chrs.length() == 3) {
-            if (chrs.charAt(0) == 'H') {
-                newalph = new String("HIJKLMNOPQ");
-            } else {
-                newalph = new String("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        if (chrs.length() == 3 && chrs.charAt(1) == '-'
+            && chrs.charAt(0) < chrs.charAt(2)) {
+            StringBuilder range = new StringBuilder();
+            for (char c = chrs.charAt(0); c <= chrs.charAt(2); c++) {
+                range.append(c);
             }
+            newalph = range.toString();
         } else {
             newalph = chrs;
         }
+        _chars = newalph.toCharArray();
+        if (_chars.length == 0) {
+            throw error("empty alphabet");
+        }
+        char lo = _chars[0], hi = _chars[0];
+        for (char c : _chars) {
+            lo = (char) Math.min(lo, c);
+            hi = (char) Math.max(hi, c);
+        }
+        _lo = lo;
+        if (hi - lo < MAX_DENSE_SPAN) {
+            _dense = new int[hi - lo + 1];
+            Arrays.fill(_dense, -1);
+        } else {
+            int cap = Integer.highestOneBit(_chars.length * 2 - 1) << 1;
+            _keys = new char[cap];
+            _values = new int[cap];
+            Arrays.fill(_values, -1);
+        }
+        for (int i = 0; i < _chars.length; i++) {
+            put(_chars[i], i);
+        }
+    }
+
+    /** Record that CH has index INDEX. */
+    private void put(char ch, int index) {
+        if (_dense != null) {
+            if (_dense[ch - _lo] >= 0) {
+                throw error("'%c' appears twice in alphabet", ch);
+            }
+            _dense[ch - _lo] = index;
+            return;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(ch) & mask; ; h = (h + 1) & mask) {
+            if (_values[h] < 0) {
+                _keys[h] = ch;
+                _values[h] = index;
+                return;
+            } else if (_keys[h] == ch) {
+                throw error("'%c' appears twice in alphabet", ch);
+            }
+        }
+    }
+
+    /** Return the starting probe position for CH in _keys. */
+    private static int hash(char ch) {
+        return ch * 0x9E3779B1 >>> 16;
+    }
+
+    /** Return the index of CH, or -1 if it is not in the alphabet. */
+    int indexOf(char ch) {
+        if (_dense != null) {
+            int k = ch - _lo;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(ch) & mask; _values[h] >= 0; h = (h + 1) & mask) {
+            if (_keys[h] == ch) {
+                return _values[h];
+            }
+        }
+        return -1;
     }
 
     /** Returns the size of the alphabet. */
     int size() {
-        return  newalph.length();
+        return _chars.length;
     }
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
-        return newalph.indexOf(ch) != -1;
+        return indexOf(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        if (index < 0 || index >= size()) {
+        if (index < 0 || index >= _chars.length) {
             throw new EnigmaException("index doesn't exist.");
         }
-        return newalph.charAt(index);
+        return _chars[index];
     }
 
     /** Returns the index of character preprocess(CH), which must be in
      *  the alphabet. This is the inverse of toChar().
      *  @param c char to convert*/
     int toInt(char c) {
-        if (contains(c)) {
-            return newalph.indexOf(c);
-        } else {
+        int index = indexOf(c);
+        if (index < 0) {
             throw new EnigmaException("charr not found.");
         }
+        return index;
     }
 }
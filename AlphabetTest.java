@@ -0,0 +1,70 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Check that ALPHA maps each character of CHARS to its position
+     *  in CHARS and back. */
+    private void checkAlphabet(Alphabet alpha, String chars) {
+        assertEquals(chars.length(), alpha.size());
+        for (int i = 0; i < chars.length(); i += 1) {
+            char c = chars.charAt(i);
+            assertTrue(alpha.contains(c));
+            assertEquals(i, alpha.toInt(c));
+            assertEquals(c, alpha.toChar(i));
+        }
+    }
+
+    @Test
+    public void upperAlphabet() {
+        checkAlphabet(UPPER, UPPER_STRING);
+        assertFalse(UPPER.contains('a'));
+        assertFalse(UPPER.contains(' '));
+    }
+
+    @Test
+    public void ranges() {
+        checkAlphabet(new Alphabet("A-Z"), UPPER_STRING);
+        checkAlphabet(new Alphabet("H-Q"), "HIJKLMNOPQ");
+        checkAlphabet(new Alphabet("0-9"), "0123456789");
+    }
+
+    @Test
+    public void threeLetterAlphabets() {
+        checkAlphabet(new Alphabet("HAT"), "HAT");
+        checkAlphabet(new Alphabet("XYZ"), "XYZ");
+        checkAlphabet(new Alphabet("Z-A"), "Z-A");
+    }
+
+    @Test
+    public void sparseAlphabet() {
+        String chars = "A\u4e00Z\uffee\u0391";
+        Alphabet alpha = new Alphabet(chars);
+        checkAlphabet(alpha, chars);
+        assertFalse(alpha.contains('B'));
+        assertFalse(alpha.contains('\u4e01'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void missingChar() {
+        UPPER.toInt('*');
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void duplicateChar() {
+        new Alphabet("ABCA");
+    }
+}
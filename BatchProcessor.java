@@ -0,0 +1,217 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static enigma.EnigmaException.*;
+
+/** Processes input like MessageStream, but treats each settings line and
+ *  the messages after it as an independent session and converts
+ *  sessions concurrently on a pool of threads.  Sessions are read and
+ *  set up in order on the calling thread, and their output is written in
+ *  the original order.  Each session's text is held in memory while it
+ *  is pending, and at most a few sessions per thread are pending at once.
+ *  @author Mohammed Abu-Sharkh
+ */
+class BatchProcessor {
+
+    /** Pending sessions allowed per thread. */
+    static final int PENDING_PER_THREAD = 4;
+
+    /** A processor reading from IN and writing to OUT using THREADS
+     *  threads.  SETUP returns the machine for a settings line (without
+     *  its leading "* ", and upper-cased); the machines it returns must
+     *  not share settings. */
+    BatchProcessor(Reader in, Writer out, Function<String, Machine> setUp,
+                   int threads) {
+        if (threads <= 0) {
+            throw error("thread count must be positive");
+        }
+        _in = in;
+        _out = out;
+        _setUp = setUp;
+        _threads = threads;
+    }
+
+    /** Process all of my input, flushing the results to my output. */
+    void process() throws IOException {
+        process(Executors.newFixedThreadPool(_threads));
+    }
+
+    /** Process all of my input on POOL, which should have my number of
+     *  threads, flushing the results to my output.  POOL is shut down
+     *  when done, whether or not processing succeeds. */
+    void process(ExecutorService pool) throws IOException {
+        try {
+            split(pool);
+            while (!_pending.isEmpty()) {
+                drain();
+            }
+            _out.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Read my input, submitting each session to POOL as it ends. */
+    private void split(ExecutorService pool) throws IOException {
+        char[] buf = new char[MessageStream.BUFFER_SIZE];
+        boolean atStart = true, first = true, inSettings = false;
+        boolean skipNewline = false;
+        int n;
+        while ((n = _in.read(buf, 0, buf.length)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                char ch = buf[i];
+                if (skipNewline) {
+                    skipNewline = false;
+                    if (ch == '\n') {
+                        continue;
+                    }
+                }
+                if (atStart) {
+                    atStart = false;
+                    if (first || ch == '*') {
+                        first = false;
+                        endSession(pool);
+                        inSettings = true;
+                    }
+                }
+                if (MessageStream.isTerminator(ch)) {
+                    if (inSettings) {
+                        startSession();
+                        inSettings = false;
+                    } else {
+                        _text.append('\n');
+                    }
+                    atStart = true;
+                    skipNewline = ch == '\r';
+                } else if (inSettings) {
+                    _settings.append(ch);
+                } else {
+                    _text.append(ch);
+                }
+            }
+        }
+        if (inSettings) {
+            startSession();
+        } else if (first) {
+            throw error("no settings line");
+        }
+        endSession(pool);
+    }
+
+    /** Set up the machine for the settings line just read. */
+    private void startSession() {
+        String line = _settings.toString().toUpperCase();
+        _settings.setLength(0);
+        try {
+            if (line.length() < 2) {
+                throw error("bad settings line: %s", line);
+            }
+            _machine = _setUp.apply(line.substring(2));
+        } catch (EnigmaException excp) {
+            _machine = null;
+            _failure = excp;
+        }
+    }
+
+    /** Submit the current session, if any, to POOL, first writing out
+     *  finished sessions if too many are pending. */
+    private void endSession(ExecutorService pool) throws IOException {
+        if (_machine == null && _failure == null) {
+            return;
+        }
+        String text = _text.toString();
+        Machine machine = _machine;
+        EnigmaException failure = _failure;
+        _text.setLength(0);
+        _machine = null;
+        _failure = null;
+        while (_pending.size() >= _threads * PENDING_PER_THREAD) {
+            drain();
+        }
+        _pending.add(pool.submit(() -> convert(text, machine, failure)));
+    }
+
+    /** Return the output of converting the message lines TEXT with
+     *  MACHINE, or of failing with FAILURE if it is not null. */
+    private Result convert(String text, Machine machine,
+                           EnigmaException failure) {
+        if (failure != null) {
+            return new Result("", failure);
+        }
+        StringWriter out = new StringWriter(text.length());
+        try {
+            new MessageStream(new StringReader(text), out, s -> {
+                throw error("unexpected settings line");
+            }, machine).process();
+            return new Result(out.toString(), null);
+        } catch (EnigmaException excp) {
+            return new Result(out.toString(), excp);
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    /** Write out the oldest pending session, throwing its error, if
+     *  any. */
+    private void drain() throws IOException {
+        Result result;
+        try {
+            result = _pending.remove().get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause());
+        }
+        _out.write(result._output);
+        if (result._failure != null) {
+            _out.flush();
+            throw result._failure;
+        }
+    }
+
+    /** The output of a session, and the error that ended it, if any. */
+    private static class Result {
+        /** A result with OUTPUT and FAILURE. */
+        Result(String output, EnigmaException failure) {
+            _output = output;
+            _failure = failure;
+        }
+
+        /** Converted text. */
+        private final String _output;
+        /** Error, or null. */
+        private final EnigmaException _failure;
+    }
+
+    /** Source of settings and messages. */
+    private final Reader _in;
+    /** Destination of converted messages. */
+    private final Writer _out;
+    /** Produces the machine for a settings line. */
+    private final Function<String, Machine> _setUp;
+    /** Number of threads. */
+    private final int _threads;
+    /** Sessions submitted but not yet written, oldest first. */
+    private final ArrayDeque<Future<Result>> _pending = new ArrayDeque<>();
+    /** The current settings line so far. */
+    private final StringBuilder _settings = new StringBuilder();
+    /** Message lines of the current session, each ending in '\n'. */
+    private final StringBuilder _text = new StringBuilder();
+    /** Machine for the current session, or null. */
+    private Machine _machine;
+    /** Error setting up the current session, or null. */
+    private EnigmaException _failure;
+}
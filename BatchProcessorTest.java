@@ -0,0 +1,190 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** The suite of all JUnit tests for the BatchProcessor class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class BatchProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with the naval rotors. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "V MZ (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n"
+        + "C R (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "     (QZ) (SX) (UY)\n";
+
+    /** Number of threads used by the batch processors. */
+    private static final int THREADS = 3;
+
+    /** Return a settings line for a random session drawn from RANDOM. */
+    private static String settings(Random random) {
+        String[] rotors = {"I", "II", "III", "IV", "V"};
+        for (int i = rotors.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String tmp = rotors[i];
+            rotors[i] = rotors[j];
+            rotors[j] = tmp;
+        }
+        StringBuilder line = new StringBuilder("* ");
+        line.append(random.nextBoolean() ? "B " : "C ");
+        line.append(random.nextBoolean() ? "Beta " : "Gamma ");
+        line.append(rotors[0]).append(' ').append(rotors[1]).append(' ')
+            .append(rotors[2]).append(' ');
+        for (int i = 0; i < 4; i++) {
+            line.append((char) ('A' + random.nextInt(26)));
+        }
+        if (random.nextBoolean()) {
+            line.append(" (HQ) (EX) (IP) (TR) (BY)");
+        }
+        return line.append('\n').toString();
+    }
+
+    /** Return SESSIONS random sessions drawn from RANDOM, with message
+     *  lines of varied lengths, some of them blank.  If BAD is
+     *  non-negative, session BAD has a settings line naming a rotor
+     *  not in CONFIG. */
+    private static String input(int sessions, int bad, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int s = 0; s < sessions; s++) {
+            if (s == bad) {
+                result.append("* B Beta III IV VIII AAAA\n");
+            } else {
+                result.append(settings(random));
+            }
+            int lines = random.nextInt(6);
+            for (int k = 0; k < lines; k++) {
+                int len = random.nextInt(4) == 0 ? 0
+                    : random.nextInt(random.nextBoolean() ? 40 : 3000);
+                for (int i = 0; i < len; i++) {
+                    result.append(random.nextInt(6) == 0 ? ' '
+                                  : (char) ('a' + random.nextInt(26)));
+                }
+                result.append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** The outcome of processing some input: OUTPUT, and the message of
+     *  the error that ended it, or null. */
+    private static class Outcome {
+        /** An outcome of OUTPUT and ERROR. */
+        Outcome(String output, String error) {
+            _output = output;
+            _error = error;
+        }
+
+        /** Converted text. */
+        private final String _output;
+        /** Error message, or null. */
+        private final String _error;
+    }
+
+    /** Return the outcome of processing INPUT with a MessageStream, with
+     *  machines from SETUP. */
+    private static Outcome sequential(String input,
+                                      Function<String, Machine> setUp)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        try {
+            new MessageStream(new StringReader(input), out, setUp).process();
+            return new Outcome(out.toString(), null);
+        } catch (EnigmaException excp) {
+            return new Outcome(out.toString(), excp.getMessage());
+        }
+    }
+
+    /** Return the outcome of processing INPUT with a BatchProcessor on
+     *  POOL, with machines from SETUP, checking that POOL is shut down
+     *  afterwards. */
+    private static Outcome batch(String input,
+                                 Function<String, Machine> setUp,
+                                 ExecutorService pool)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        Outcome result;
+        try {
+            new BatchProcessor(new StringReader(input), out, setUp, THREADS)
+                .process(pool);
+            result = new Outcome(out.toString(), null);
+        } catch (EnigmaException excp) {
+            result = new Outcome(out.toString(), excp.getMessage());
+        }
+        assertTrue(pool.isShutdown());
+        try {
+            assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+        } catch (InterruptedException excp) {
+            fail("interrupted");
+        }
+        return result;
+    }
+
+    /** Check that INPUT gives the same outcome in batches as in
+     *  sequence, and return that outcome. */
+    private static Outcome check(String input) throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        try {
+            Files.writeString(config, CONFIG);
+            Function<String, Machine> setUp =
+                Main.loadConfig(config.toString());
+            Outcome expected = sequential(input, setUp);
+            Outcome actual =
+                batch(input, setUp, Executors.newFixedThreadPool(THREADS));
+            assertEquals(expected._error, actual._error);
+            assertEquals(expected._output, actual._output);
+            return expected;
+        } finally {
+            Files.delete(config);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void batchesMatchSequential() throws IOException {
+        Random random = new Random(11);
+        String input = input(60, -1, random);
+        assertNull(check(input)._error);
+        assertNull(check(input.replace("\n", "\r\n"))._error);
+    }
+
+    @Test
+    public void badSettingsStopBatch() throws IOException {
+        Random random = new Random(12);
+        String input = input(40, 25, random);
+        Outcome outcome = check(input);
+        assertEquals("unknown rotor: VIII", outcome._error);
+        assertTrue(outcome._output.length() > 0);
+    }
+}
@@ -0,0 +1,497 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A simulation of Turing's Bombe: a search for the rotor orders and
+ *  starting positions at which a known plaintext (a crib) could have
+ *  encrypted to the ciphertext under some plugboard.
+ *  <p>
+ *  The crib and the ciphertext under it form a menu, a graph whose
+ *  vertices are characters and whose edges join each crib character to
+ *  its encryption, labelled with the keypress.  If the plugboard takes
+ *  A to S(A), an edge A-B at keypress K says that the rotors at K take
+ *  S(A) to S(B).  For each order and position, the Bombe guesses the
+ *  partner of the menu's most connected character, the register, and
+ *  follows the edges, and the symmetry of the plugboard (the diagonal
+ *  board), to everything the guess implies.  A guess that implies two
+ *  partners for some character is wrong, and so is every other guess
+ *  it implies for the register, since implication runs both ways.  A
+ *  position where some guess implies no contradiction is a stop.
+ *  <p>
+ *  The implications are kept as one bit mask per character, whose bit V
+ *  is set when the character's partner may be V, so the alphabet may
+ *  have at most 64 characters.  At each position the rotors are
+ *  stepped through the keypresses the menu covers, but each path
+ *  through them is computed only when a test first follows it, since
+ *  most wrong positions are refuted after a few.
+ *  <p>
+ *  Unlike the machine, which energizes every consequence of its
+ *  register at once, the search tests one guess at a time and abandons
+ *  it at the first contradiction.  So it refutes together only the
+ *  guesses implied before that point, and almost every guess takes a
+ *  test of its own.  Propagating the register's whole mask in one pass
+ *  would need every path at every keypress, since no permutation of a
+ *  mask's bits is cheaper than mapping them one by one.  Measured on a
+ *  single thread with 20- and 30-letter cribs from the message of
+ *  BombeTest, a position costs about 26 tests, 133 edges followed and
+ *  131 paths (of 520 and 780), taking 5.5 and 6.6 microseconds.
+ *  Computing all the paths alone takes 13 and 16.
+ *  @author Mohammed Abu-Sharkh
+ */
+class Bombe {
+
+    /** Largest alphabet size. */
+    static final int MAX_SIZE = Long.SIZE;
+    /** Largest number of (order, positions) pairs tried by one task
+     *  without splitting. */
+    static final int LEAF = 1 << 10;
+
+    /** Search for the settings of a ciphertext, as specified by ARGS:
+     *  options "-t THREADS" (default: all processors), "-w ROTORS" (try
+     *  only the rotor order ROTORS, a space-separated list of names
+     *  starting with the reflector) and "-o OFFSET" (the crib starts at
+     *  character OFFSET of the ciphertext; default 0), followed by the
+     *  name of a configuration file, the crib, and the name of a file
+     *  holding the ciphertext.  Characters of the crib and ciphertext
+     *  that are not in the alphabet, even when upper-cased, are ignored.
+     *  Prints a summary of the menu, then each stop as a settings line
+     *  whose plugboard holds the pairs the stop implies. */
+    public static void main(String... args) {
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int offset = 0;
+            String[] order = null;
+            int i = 0;
+            for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+                switch (args[i]) {
+                case "-t":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-w":
+                    order = args[i + 1].toUpperCase().trim().split("\\s+");
+                    break;
+                case "-o":
+                    offset = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw error("unknown option %s", args[i]);
+                }
+            }
+            if (args.length - i != 3) {
+                throw error("usage: java enigma.Bombe [-t THREADS] [-w ROTORS]"
+                            + " [-o OFFSET] CONFIG CRIB CIPHERTEXT");
+            }
+            Machine template = Main.readMachine(args[i]);
+            Alphabet alpha = template.alphabet();
+            Menu menu = new Menu(alpha, KeySearch.indices(alpha, args[i + 1]),
+                    KeySearch.indices(alpha, new String(
+                            Files.readAllBytes(Paths.get(args[i + 2])))),
+                    offset);
+            System.out.println(menu);
+            Bombe bombe = new Bombe(template);
+            List<String[]> orders = order == null
+                ? new KeySearch(template, () -> null).orders()
+                : Collections.singletonList(order);
+            for (KeySearch.Candidate stop
+                     : bombe.run(menu, orders, new ForkJoinPool(threads))) {
+                System.out.println(stop);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A Bombe for the rotors and slots of TEMPLATE, whose alphabet has
+     *  at most MAX_SIZE characters. */
+    Bombe(Machine template) {
+        _alphabet = template.alphabet();
+        if (_alphabet.size() > MAX_SIZE) {
+            throw error("the Bombe handles at most %d characters", MAX_SIZE);
+        }
+        _numRotors = template.numRotors();
+        _pawls = template.numPawls();
+        _bank = template.bank();
+    }
+
+    /** Return the stops for MENU with each of ORDERS at every starting
+     *  position, using POOL, in order of rotor order and position.  A
+     *  stop's score is the number of plugboard pairs it implies. */
+    List<KeySearch.Candidate> run(Menu menu, List<String[]> orders,
+                                  ForkJoinPool pool) {
+        if (menu.size() != _alphabet.size()) {
+            throw error("menu is for a different alphabet");
+        }
+        long per = 1;
+        for (int i = 1; i < _numRotors; i++) {
+            per = Math.multiplyExact(per, _alphabet.size());
+        }
+        long total = Math.multiplyExact(per, orders.size());
+        return pool.invoke(new Run(menu, orders, per, 0, total));
+    }
+
+    /** The graph of a crib and the ciphertext under it. */
+    static class Menu {
+        /** The menu of CRIB (as indices in ALPHA) under the CIPHERTEXT
+         *  characters starting at OFFSET.  The crib must not run past
+         *  the end of the ciphertext, and since no character encrypts to
+         *  itself, no crib character may equal the one under it. */
+        Menu(Alphabet alpha, int[] crib, int[] ciphertext, int offset) {
+            if (offset < 0 || crib.length == 0
+                || offset + crib.length > ciphertext.length) {
+                throw error("crib does not fit the ciphertext");
+            }
+            int size = alpha.size();
+            _alphabet = alpha;
+            _offset = offset;
+            _length = crib.length;
+            int[] degree = new int[size];
+            for (int k = 0; k < crib.length; k++) {
+                int a = crib[k], b = ciphertext[offset + k];
+                if (a == b) {
+                    throw error("crib character %c encrypts to itself at "
+                                + "offset %d", alpha.toChar(a), offset + k);
+                }
+                degree[a] += 1;
+                degree[b] += 1;
+            }
+            _start = new int[size + 1];
+            for (int c = 0; c < size; c++) {
+                _start[c + 1] = _start[c] + degree[c];
+            }
+            _other = new int[_start[size]];
+            _keypress = new int[_start[size]];
+            int[] next = _start.clone();
+            for (int k = 0; k < crib.length; k++) {
+                int a = crib[k], b = ciphertext[offset + k];
+                _other[next[a]] = b;
+                _keypress[next[a]] = k;
+                next[a] += 1;
+                _other[next[b]] = a;
+                _keypress[next[b]] = k;
+                next[b] += 1;
+            }
+            int register = 0;
+            for (int c = 0; c < size; c++) {
+                if (degree[c] > degree[register]) {
+                    register = c;
+                }
+            }
+            _register = register;
+        }
+
+        /** Return the size of my alphabet. */
+        int size() {
+            return _alphabet.size();
+        }
+
+        /** Return the number of keypresses I cover. */
+        int length() {
+            return _length;
+        }
+
+        /** Return the index of the first ciphertext character I cover. */
+        int offset() {
+            return _offset;
+        }
+
+        /** Return my register: the character with the most edges. */
+        int register() {
+            return _register;
+        }
+
+        /** Return the number of characters with edges. */
+        int letters() {
+            int result = 0;
+            for (int c = 0; c < size(); c++) {
+                result += _start[c + 1] > _start[c] ? 1 : 0;
+            }
+            return result;
+        }
+
+        /** Return the number of independent loops: the edges that do not
+         *  join characters already connected.  Each loop is a check on a
+         *  guess, so the more loops, the fewer false stops. */
+        int loops() {
+            int[] parent = new int[size()];
+            for (int c = 0; c < parent.length; c++) {
+                parent[c] = c;
+            }
+            int result = 0;
+            for (int c = 0; c < parent.length; c++) {
+                for (int e = _start[c]; e < _start[c + 1]; e++) {
+                    int d = _other[e];
+                    if (d < c) {
+                        continue;
+                    }
+                    int r = root(parent, c), s = root(parent, d);
+                    if (r == s) {
+                        result += 1;
+                    } else {
+                        parent[r] = s;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** Return the root of C's set in the forest PARENT. */
+        private static int root(int[] parent, int c) {
+            while (parent[c] != c) {
+                parent[c] = parent[parent[c]];
+                c = parent[c];
+            }
+            return c;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("menu: %d keypresses from %d, %d letters,"
+                                 + " %d loops, register %c", _length,
+                                 _offset, letters(), loops(),
+                                 _alphabet.toChar(_register));
+        }
+
+        /** Alphabet. */
+        private final Alphabet _alphabet;
+        /** First ciphertext character and number of keypresses. */
+        private final int _offset, _length;
+        /** Edges of character C are numbered _start[C] to
+         *  _start[C + 1] - 1. */
+        private final int[] _start;
+        /** Character at the other end of each edge, and the keypress,
+         *  from 0, that labels it. */
+        private final int[] _other, _keypress;
+        /** The character whose partner is guessed. */
+        private final int _register;
+    }
+
+    /** The task of testing the (order, positions) pairs numbered LO to
+     *  HI-1, where pair number I is order I / PER at the positions whose
+     *  digits, in the alphabet size as base, are I % PER. */
+    private class Run extends RecursiveTask<List<KeySearch.Candidate>> {
+        /** A task for pairs LO..HI-1 of the search described above, for
+         *  MENU and ORDERS. */
+        Run(Menu menu, List<String[]> orders, long per, long lo, long hi) {
+            _menu = menu;
+            _orders = orders;
+            _per = per;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected List<KeySearch.Candidate> compute() {
+            if (_hi - _lo > LEAF) {
+                long mid = (_lo + _hi) >>> 1;
+                Run left = new Run(_menu, _orders, _per, _lo, mid);
+                left.fork();
+                List<KeySearch.Candidate> right =
+                    new Run(_menu, _orders, _per, mid, _hi).compute();
+                List<KeySearch.Candidate> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            List<KeySearch.Candidate> result = new ArrayList<>();
+            int size = _alphabet.size();
+            int[] posns = new int[_numRotors];
+            _paths = new int[_menu.length() * size];
+            _settings = new int[_menu.length() * _numRotors];
+            _live = new long[size];
+            _queue = new int[size];
+            Stepper stepper = null;
+            long current = -1;
+            Machine mach = new Machine(_alphabet, _numRotors, _pawls, _bank);
+            for (long i = _lo; i < _hi; i++) {
+                long order = i / _per;
+                if (order != current) {
+                    mach.insertRotors(_orders.get((int) order));
+                    _specs = mach.specs();
+                    stepper = new Stepper(_specs, _pawls);
+                    current = order;
+                }
+                long rest = i % _per;
+                for (int slot = _numRotors - 1; slot > 0; slot--) {
+                    posns[slot] = (int) (rest % size);
+                    rest /= size;
+                }
+                stepper.advance(posns, _menu.offset());
+                for (int k = 0; k < _menu.length(); k++) {
+                    stepper.step(posns);
+                    System.arraycopy(posns, 0, _settings, k * _numRotors,
+                                     _numRotors);
+                }
+                Arrays.fill(_paths, -1);
+                int pairs = test();
+                if (pairs >= 0) {
+                    result.add(new KeySearch.Candidate(pairs,
+                            _orders.get((int) order), start(i),
+                            _alphabet, plugboard()));
+                }
+            }
+            return result;
+        }
+
+        /** Test every guess for the register's partner against _paths,
+         *  returning the number of plugboard pairs implied by the first
+         *  guess that survives, with its implications left in _live, or
+         *  -1 if none does. */
+        private int test() {
+            int size = _alphabet.size(), register = _menu.register();
+            long tried = 0;
+            for (int guess = 0; guess < size; guess++) {
+                if ((tried & (1L << guess)) != 0) {
+                    continue;
+                }
+                boolean consistent = close(register, guess);
+                tried |= _live[register];
+                if (consistent) {
+                    int pairs = 0;
+                    for (int c = 0; c < size; c++) {
+                        long bits = _live[c];
+                        pairs += bits != 0
+                            && Long.numberOfTrailingZeros(bits) > c ? 1 : 0;
+                    }
+                    return pairs;
+                }
+            }
+            return -1;
+        }
+
+        /** Set _live to the implications of the guess that the partner of
+         *  REGISTER is GUESS, returning false as soon as some character
+         *  has two possible partners, or true if none has. */
+        private boolean close(int register, int guess) {
+            int size = _alphabet.size();
+            long[] live = _live;
+            int[] queue = _queue, paths = _paths;
+            int[] start = _menu._start, other = _menu._other,
+                keypress = _menu._keypress;
+            Arrays.fill(live, 0);
+            live[register] = 1L << guess;
+            queue[0] = register * size + guess;
+            int head = 0, tail = 1;
+            while (head < tail) {
+                int c = queue[head] / size, v = queue[head] % size;
+                head += 1;
+                for (int e = start[c]; e <= start[c + 1]; e++) {
+                    int d, w;
+                    if (e == start[c + 1]) {
+                        d = v;
+                        w = c;
+                    } else {
+                        d = other[e];
+                        w = paths[keypress[e] * size + v];
+                        if (w < 0) {
+                            w = path(keypress[e], v);
+                        }
+                    }
+                    long bit = 1L << w;
+                    if ((live[d] & bit) != 0) {
+                        continue;
+                    }
+                    if (live[d] != 0) {
+                        live[d] |= bit;
+                        return false;
+                    }
+                    live[d] = bit;
+                    queue[tail] = d * size + w;
+                    tail += 1;
+                }
+            }
+            return true;
+        }
+
+        /** Return the starting positions of pair number I. */
+        private int[] start(long i) {
+            int size = _alphabet.size();
+            int[] result = new int[_numRotors];
+            long rest = i % _per;
+            for (int slot = _numRotors - 1; slot > 0; slot--) {
+                result[slot] = (int) (rest % size);
+                rest /= size;
+            }
+            return result;
+        }
+
+        /** Return, and record in _paths, the path of C through the rotors
+         *  and reflector at keypress K of the menu. */
+        private int path(int k, int c) {
+            RotorSpec[] specs = _specs;
+            int[] settings = _settings;
+            int base = k * specs.length, result = c;
+            for (int i = specs.length - 1; i > -1; i -= 1) {
+                result = specs[i].convertForward(result, settings[base + i]);
+            }
+            for (int i = 1; i < specs.length; i += 1) {
+                result = specs[i].convertBackward(result,
+                                                  settings[base + i]);
+            }
+            _paths[k * _alphabet.size() + c] = result;
+            return result;
+        }
+
+        /** Return the plugboard pairs in _live as cycles. */
+        private String plugboard() {
+            StringBuilder result = new StringBuilder();
+            for (int c = 0; c < _live.length; c++) {
+                if (_live[c] != 0) {
+                    int v = Long.numberOfTrailingZeros(_live[c]);
+                    if (v > c) {
+                        result.append('(').append(_alphabet.toChar(c))
+                            .append(_alphabet.toChar(v)).append(") ");
+                    }
+                }
+            }
+            return result.toString().trim();
+        }
+
+        /** The menu. */
+        private final Menu _menu;
+        /** Rotor orders. */
+        private final List<String[]> _orders;
+        /** Number of positions per order. */
+        private final long _per;
+        /** Range of pairs tried. */
+        private final long _lo, _hi;
+        /** Wiring of the rotors of the current order, by slot. */
+        private RotorSpec[] _specs;
+        /** Rotor settings at each of the menu's keypresses, by keypress
+         *  and slot, at the current position. */
+        private int[] _settings;
+        /** Rotor paths for the menu's keypresses at the current
+         *  position, by keypress and character, or -1 where not yet
+         *  computed. */
+        private int[] _paths;
+        /** Possible partners of each character, as bit masks. */
+        private long[] _live;
+        /** Implications not yet followed, as character * size +
+         *  partner.  Each character is queued at most once, since a
+         *  second partner ends the test. */
+        private int[] _queue;
+    }
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+    /** Number of slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+    /** Available rotors, shared by all trial machines. */
+    private final RotorBank _bank;
+}
@@ -0,0 +1,77 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void menuLoops() {
+        Bombe.Menu menu = new Bombe.Menu(UPPER,
+                KeySearch.indices(UPPER, "ABCAD"),
+                KeySearch.indices(UPPER, "XBCADE"), 1);
+        assertEquals(5, menu.length());
+        assertEquals(1, menu.offset());
+        assertEquals(0, menu.register());
+        assertEquals(5, menu.letters());
+        assertEquals(1, menu.loops());
+    }
+
+    @Test
+    public void menuRejectsSelfEncryption() {
+        try {
+            new Bombe.Menu(UPPER, KeySearch.indices(UPPER, "ABCAD"),
+                           KeySearch.indices(UPPER, "XYZAAQ"), 1);
+            fail("expected an EnigmaException");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().contains("offset 4"));
+        }
+    }
+
+    @Test
+    public void stopsAtSettings() {
+        String plugboard = "(AQ) (EP) (TZ) (SX)";
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "III", "IV", "I"});
+        mach.setRotors("QMZ");
+        mach.setPlugboard(new Permutation(plugboard, UPPER));
+        String text = KeySearchTest.PLAIN.replace(" ", "");
+        int[] cipher = KeySearch.indices(UPPER, mach.convert(text));
+        Bombe.Menu menu = new Bombe.Menu(UPPER,
+                KeySearch.indices(UPPER, text.substring(5, 35)), cipher, 5);
+        Bombe bombe = new Bombe(mach);
+        List<KeySearch.Candidate> stops =
+            bombe.run(menu, Collections.singletonList(
+                          new String[] {"B", "III", "IV", "I"}),
+                      ForkJoinPool.commonPool());
+        KeySearch.Candidate found = null;
+        for (KeySearch.Candidate stop : stops) {
+            if (stop.toString().startsWith("* B III IV I QMZ")) {
+                found = stop;
+            }
+        }
+        assertNotNull(found);
+        assertTrue(stops.size() < 10);
+        for (String pair : found.plugboard().split(" ")) {
+            assertTrue(pair, plugboard.contains(pair));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package enigma;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+import static enigma.EnigmaException.*;
+
+/** A machine over bytes: the rotors, settings and plugboard of a Machine
+ *  whose alphabet is ALPHABET, the 256 byte values in order, converting
+ *  byte[] arrays and ByteBuffers directly.  Every byte is a symbol, so
+ *  arbitrary binary files may be encrypted, and nothing is decoded,
+ *  upper-cased or passed through.
+ *  <p>
+ *  Wirings are byte[] tables of 64K entries, one row per setting.  The
+ *  rotors left of the two rightmost ones move only every few hundred
+ *  keypresses, so their round trip, with the reflector, is a single
+ *  256-entry table, rebuilt only when one of them moves.  The plugboard
+ *  is folded into the rightmost rotor's tables, so that each byte costs
+ *  five lookups into rows that stay in cache.
+ *  <p>
+ *  A byte configuration file gives "00-FF" as its alphabet, and writes
+ *  each symbol as two hexadecimal digits, in cycles (with no whitespace
+ *  inside a cycle, as in "(00417f) (0a0d)"), notches ("M00" is a notch
+ *  at 0), the settings of a settings line, and the plugboard.
+ *  @author Mohammed Abu-Sharkh
+ */
+class ByteMachine {
+
+    /** Name of the byte alphabet in configuration files. */
+    static final String BYTES = "00-FF";
+    /** Number of byte values. */
+    static final int SIZE = 256;
+    /** The alphabet whose symbol I is the byte value I. */
+    static final Alphabet ALPHABET = new Alphabet("\u0000-\u00ff");
+
+    /** Return true iff ALPHA is the byte alphabet: the characters with
+     *  codes 0 to 255, in order. */
+    static boolean isBytes(Alphabet alpha) {
+        if (alpha == ALPHABET) {
+            return true;
+        }
+        if (alpha.size() != SIZE) {
+            return false;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            if (alpha.toChar(i) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the string of byte symbols whose hexadecimal digits are
+     *  HEX, two per symbol. */
+    static String decode(String hex) {
+        return decode(hex, i -> "");
+    }
+
+    /** As for decode(HEX), but each error message starts with WHERE(I),
+     *  where I is the index in HEX of the digit at fault. */
+    static String decode(String hex, IntFunction<String> where) {
+        return decode(hex, 0, hex.length(), where);
+    }
+
+    /** Return the string of byte symbols whose hexadecimal digits are
+     *  HEX from FROM to TO, with error messages starting with WHERE(I)
+     *  for the digit at index I at fault. */
+    private static String decode(String hex, int from, int to,
+                                 IntFunction<String> where) {
+        if ((to - from) % 2 != 0) {
+            throw error("%sodd number of hex digits in %s", where.apply(from),
+                        hex.substring(from, to));
+        }
+        char[] result = new char[(to - from) / 2];
+        for (int i = 0; i < result.length; i++) {
+            int k = from + 2 * i;
+            result[i] = (char) (digit(hex, k, where) << 4
+                                | digit(hex, k + 1, where));
+        }
+        return new String(result);
+    }
+
+    /** Return the permutation of ALPHABET whose cycles are CYCLES, in
+     *  which each symbol is two hexadecimal digits.  Symbols in no cycle
+     *  map to themselves; a repeated symbol is an error. */
+    static Permutation permutation(String cycles) {
+        return permutation(cycles, i -> "");
+    }
+
+    /** As for permutation(CYCLES), but each error message starts with
+     *  WHERE(I), where I is the index in CYCLES of the character at
+     *  fault. */
+    static Permutation permutation(String cycles, IntFunction<String> where) {
+        int[] forward = new int[SIZE], inverse = new int[SIZE];
+        Arrays.fill(forward, -1);
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char ch = cycles.charAt(i);
+            if (ch == '(') {
+                if (start >= 0) {
+                    throw error("%snested '(' in cycles %s", where.apply(i),
+                                cycles);
+                }
+                start = i + 1;
+            } else if (ch == ')') {
+                if (start < 0) {
+                    throw error("%sunmatched ')' in cycles %s",
+                                where.apply(i), cycles);
+                }
+                String cycle = decode(cycles, start, i, where);
+                for (int k = 0; k < cycle.length(); k++) {
+                    int from = cycle.charAt(k);
+                    if (forward[from] >= 0) {
+                        throw error("%s'%02X' appears twice in %s",
+                                    where.apply(start + 2 * k), from,
+                                    cycles);
+                    }
+                    forward[from] =
+                        cycle.charAt((k + 1) % cycle.length());
+                }
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(ch)) {
+                throw error("%s'%c' is outside of any cycle in %s",
+                            where.apply(i), ch, cycles);
+            }
+        }
+        if (start >= 0) {
+            throw error("%sunterminated cycle in %s", where.apply(start - 1),
+                        cycles);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            if (forward[i] < 0) {
+                forward[i] = i;
+            }
+            inverse[forward[i]] = i;
+        }
+        return new Permutation(ALPHABET, forward, inverse);
+    }
+
+    /** Return the value of the hexadecimal digit at K in HEX, with an
+     *  error message starting with WHERE(K) if it is not one. */
+    private static int digit(String hex, int k, IntFunction<String> where) {
+        int result = Character.digit(hex.charAt(k), 16);
+        if (result < 0) {
+            throw error("%sbad hex digit '%c' in %s", where.apply(k),
+                        hex.charAt(k), hex);
+        }
+        return result;
+    }
+
+    /** A byte machine with the rotors, settings and plugboard of
+     *  TEMPLATE, whose alphabet must be ALPHABET.  TEMPLATE is not
+     *  retained. */
+    ByteMachine(Machine template) {
+        if (!isBytes(template.alphabet())) {
+            throw error("byte machine needs the alphabet %s", BYTES);
+        }
+        _specs = template.specs();
+        int n = _specs.length;
+        if (n != template.numRotors()) {
+            throw error("bad config.");
+        }
+        if (n < 3) {
+            throw error("byte machine needs two rotors besides the "
+                        + "reflector");
+        }
+        _last = n - 1;
+        _posns = template.positions();
+        _stepper = new Stepper(_specs, template.numPawls());
+        _step = _specs[_last].rotates() ? 1 : 0;
+        int[] plug = new int[SIZE];
+        Permutation plugboard = template.plugboard();
+        for (int c = 0; c < SIZE; c++) {
+            plug[c] = plugboard == null ? c : plugboard.permute(c);
+        }
+        RotorSpec last = _specs[_last], mid = _specs[_last - 1];
+        _forward = table(last.forwardTable(), plug, null);
+        _backward = table(last.backwardTable(), null, plug);
+        _midForward = table(mid.forwardTable(), null, null);
+        _midBackward = table(mid.backwardTable(), null, null);
+        _inner = new byte[SIZE];
+        _scratch = new int[SIZE];
+        _innerKey = new int[_last - 1];
+        rebuild();
+    }
+
+    /** Return my settings, by slot, the reflector's first. */
+    int[] positions() {
+        return _posns.clone();
+    }
+
+    /** Convert the LEN bytes of IN starting at OFF, writing the results
+     *  to OUT starting at OUTOFF and advancing the rotors for each.  IN
+     *  and OUT may be the same array.  Returns LEN. */
+    int convert(byte[] in, int off, int len, byte[] out, int outOff) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        int[] posns = _posns;
+        byte[] forward = _forward, backward = _backward,
+            midForward = _midForward, midBackward = _midBackward,
+            inner = _inner;
+        int last = _last, step = _step;
+        int i = 0;
+        while (i < len) {
+            int run = (int) Math.min(_stepper.nextEvent(posns), len - i);
+            int k = posns[last], mid = posns[last - 1] << 8;
+            for (int end = i + run; i < end; i++) {
+                k = (k + step) & (SIZE - 1);
+                int base = k << 8;
+                int c = forward[base | in[off + i] & 0xff] & 0xff;
+                c = inner[midForward[mid | c] & 0xff] & 0xff;
+                out[outOff + i] = backward[base | midBackward[mid | c] & 0xff];
+            }
+            posns[last] = k;
+            if (i < len) {
+                if (_stepper.step(posns)) {
+                    rebuild();
+                }
+                out[outOff + i] = press(in[off + i], posns[last] << 8,
+                                        posns[last - 1] << 8);
+                i += 1;
+            }
+        }
+        return len;
+    }
+
+    /** Return the conversion of B with the rightmost rotor at the
+     *  setting BASE / 256 and the one to its left at MID / 256. */
+    private byte press(byte b, int base, int mid) {
+        int c = _forward[base | b & 0xff] & 0xff;
+        c = _midForward[mid | c] & 0xff;
+        c = _inner[c] & 0xff;
+        c = _midBackward[mid | c] & 0xff;
+        return _backward[base | c];
+    }
+
+    /** Convert the remaining bytes of IN into OUT, advancing the
+     *  positions of both buffers.  OUT must have at least IN.remaining()
+     *  bytes remaining.  Returns the number of bytes converted. */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            convert(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+            return len;
+        }
+        if (_chunk == null) {
+            _chunk = new byte[CHUNK];
+        }
+        byte[] chunk = _chunk;
+        for (int done = 0; done < len; done += CHUNK) {
+            int n = Math.min(CHUNK, len - done);
+            in.get(chunk, 0, n);
+            convert(chunk, 0, n, chunk, 0);
+            out.put(chunk, 0, n);
+        }
+        return len;
+    }
+
+    /** Recompute _inner if any of the rotors it covers has moved. */
+    private void rebuild() {
+        if (_built && Arrays.equals(_posns, 0, _innerKey.length,
+                                    _innerKey, 0, _innerKey.length)) {
+            return;
+        }
+        System.arraycopy(_posns, 0, _innerKey, 0, _innerKey.length);
+        _built = true;
+        int[] c = _scratch;
+        for (int x = 0; x < SIZE; x++) {
+            c[x] = x;
+        }
+        for (int i = _last - 2; i > -1; i -= 1) {
+            pass(_specs[i].forwardTable(), _posns[i], c);
+        }
+        for (int i = 1; i < _last - 1; i += 1) {
+            pass(_specs[i].backwardTable(), _posns[i], c);
+        }
+        for (int x = 0; x < SIZE; x++) {
+            _inner[x] = (byte) c[x];
+        }
+    }
+
+    /** Replace each element of C by its entry in TABLE at SETTING. */
+    private static void pass(int[] table, int setting, int[] c) {
+        int base = setting * SIZE;
+        for (int x = 0; x < SIZE; x++) {
+            c[x] = table[base + c[x]];
+        }
+    }
+
+    /** Return TABLE, a rotor's conversion table, as bytes, with each
+     *  input first mapped through BEFORE and each output then mapped
+     *  through AFTER, where these are not null. */
+    private static byte[] table(int[] table, int[] before, int[] after) {
+        byte[] result = new byte[SIZE * SIZE];
+        for (int k = 0; k < SIZE * SIZE; k += SIZE) {
+            for (int c = 0; c < SIZE; c++) {
+                int e = table[k + (before == null ? c : before[c])];
+                result[k + c] = (byte) (after == null ? e : after[e]);
+            }
+        }
+        return result;
+    }
+
+    /** Size of the scratch array for buffers without arrays. */
+    private static final int CHUNK = 1 << 13;
+
+    /** Wiring of the rotors, by slot. */
+    private final RotorSpec[] _specs;
+    /** Slot of the rightmost rotor. */
+    private final int _last;
+    /** Current settings, by slot. */
+    private final int[] _posns;
+    /** Stepping rules of my rotors. */
+    private final Stepper _stepper;
+    /** Amount by which the rightmost rotor advances on a quiet
+     *  keypress: 1, or 0 if it cannot move. */
+    private final int _step;
+    /** Forward conversions of the rightmost rotor after the plugboard:
+     *  entry K * 256 + C for setting K and input byte C. */
+    private final byte[] _forward;
+    /** Backward conversions of the rightmost rotor, followed by the
+     *  plugboard, as for _forward. */
+    private final byte[] _backward;
+    /** Forward and backward conversions of the rotor left of the
+     *  rightmost, as for _forward. */
+    private final byte[] _midForward, _midBackward;
+    /** Round trip through the rotors left of those two, and the
+     *  reflector, at their current settings. */
+    private final byte[] _inner;
+    /** Settings of the slots covered by _inner when it was built. */
+    private final int[] _innerKey;
+    /** True iff _inner has been built. */
+    private boolean _built;
+    /** Scratch for rebuild. */
+    private final int[] _scratch;
+    /** Scratch for converting buffers without arrays, or null. */
+    private byte[] _chunk;
+}
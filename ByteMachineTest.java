@@ -0,0 +1,144 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the ByteMachine class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class ByteMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a random permutation of the byte alphabet, an involution
+     *  with no fixed points if REFLECT, drawn from RANDOM. */
+    private static Permutation randomPermutation(boolean reflect,
+                                                 Random random) {
+        int n = ByteMachine.SIZE;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        int[] forward = new int[n], inverse = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (reflect) {
+                forward[order[i]] = order[i ^ 1];
+            } else {
+                forward[order[i]] = order[(i + 1) % n];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            inverse[forward[i]] = i;
+        }
+        return new Permutation(ByteMachine.ALPHABET, forward, inverse);
+    }
+
+    /** Return a five-slot byte machine with three pawls, random rotors
+     *  with many notches, a plugboard and random settings, all drawn
+     *  from RANDOM. */
+    private static Machine randomMachine(Random random) {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", randomPermutation(true, random)));
+        rotors.add(new FixedRotor("F", randomPermutation(false, random)));
+        for (int r = 1; r <= 3; r++) {
+            StringBuilder notches = new StringBuilder();
+            for (int k = 0; k < ByteMachine.SIZE; k += 1 + random.nextInt(9)) {
+                notches.append((char) k);
+            }
+            rotors.add(new MovingRotor("M" + r,
+                                       randomPermutation(false, random),
+                                       notches.toString()));
+        }
+        Machine mach = new Machine(ByteMachine.ALPHABET, 5, 3, rotors);
+        mach.insertRotors(new String[] {"R", "F", "M1", "M2", "M3"});
+        int[] posns = new int[5];
+        for (int i = 1; i < 5; i++) {
+            posns[i] = random.nextInt(ByteMachine.SIZE);
+        }
+        mach.setPositions(posns);
+        mach.setPlugboard(ByteMachine.permutation("(00ff) (4142) (0a0d)"));
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void bytesMatchMachine() {
+        Random random = new Random(23);
+        Machine mach = randomMachine(random);
+        ByteMachine bytes = new ByteMachine(mach);
+        byte[] data = new byte[50000];
+        random.nextBytes(data);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length,
+                     bytes.convert(data, 0, data.length, out, 0));
+        for (int i = 0; i < data.length; i++) {
+            assertEquals("byte " + i, mach.convert(data[i] & 0xff),
+                         out[i] & 0xff);
+        }
+        assertArrayEquals(mach.positions(), bytes.positions());
+    }
+
+    @Test
+    public void buffersRoundTrip() {
+        Random random = new Random(24);
+        Machine mach = randomMachine(random);
+        byte[] data = new byte[40000];
+        random.nextBytes(data);
+        ByteBuffer in = ByteBuffer.allocateDirect(data.length);
+        in.put(data).flip();
+        ByteBuffer out = ByteBuffer.allocateDirect(data.length);
+        assertEquals(data.length, new ByteMachine(mach).convert(in, out));
+        assertFalse(in.hasRemaining());
+        assertFalse(out.hasRemaining());
+        byte[] cipher = new byte[data.length];
+        out.flip();
+        out.get(cipher);
+        byte[] expected = new byte[data.length];
+        new ByteMachine(mach).convert(data, 0, data.length, expected, 0);
+        assertArrayEquals(expected, cipher);
+        ByteMachine decrypt = new ByteMachine(mach);
+        decrypt.convert(ByteBuffer.wrap(cipher), ByteBuffer.wrap(cipher));
+        assertArrayEquals(data, cipher);
+    }
+
+    @Test
+    public void hexConfiguration() {
+        String config = "00-ff 3 1\n"
+            + "R R (0001) (0203) (0405)\n"
+            + "F N (0a0b0c)\n"
+            + "M M01ff (00ff) (4142)\n";
+        Machine mach = new ConfigParser("t", config).parse();
+        assertTrue(ByteMachine.isBytes(mach.alphabet()));
+        assertFalse(ByteMachine.isBytes(TestUtils.UPPER));
+        mach.insertRotors(new String[] {"R", "F", "M"});
+        mach.setRotors(ByteMachine.decode("00FE"));
+        assertArrayEquals(new int[] {0, 0, 0xfe}, mach.positions());
+        Rotor m = mach.bank().get("M");
+        assertEquals(0xff, m.permutation().permute(0));
+        assertEquals(0x41, m.permutation().invert(0x42));
+        assertTrue(m.notchAt(1) && m.notchAt(0xff) && !m.notchAt(0));
+        Permutation plug = ByteMachine.permutation("(2829) (2000)");
+        assertEquals(0x29, plug.permute(0x28));
+        assertEquals(0x20, plug.invert(0));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void needsByteAlphabet() {
+        Machine mach = new Machine(TestUtils.UPPER, 5, 3,
+                                   TestUtils.navalRotors());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        new ByteMachine(mach);
+    }
+}
@@ -0,0 +1,232 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A compiled form of a configuration file, which loads without
+ *  parsing.  The image of the configuration file CONFIG is kept beside
+ *  it, as CONFIG.img, and written by "java enigma.ConfigImage CONFIG".
+ *  Main loads the image in place of the configuration whenever it is
+ *  current: written by this VERSION, intact, and recorded as made from
+ *  a file with CONFIG's current size and modification time.  Otherwise
+ *  the text is parsed as usual, so a stale image is never harmful.
+ *  <p>
+ *  An image is a header (MAGIC, VERSION, the size and modification time
+ *  of its configuration file, and the length and CRC-32 of the body)
+ *  followed by the body: the alphabet's characters, the numbers of
+ *  slots and pawls, and for each rotor its kind ('M', 'N' or 'R'),
+ *  name, notches, and the dense tables of its permutation and inverse.
+ *  All numbers are little-endian; characters are 16-bit units, and
+ *  strings are preceded by their lengths.  The image is mapped, not
+ *  read, and its tables are bulk-copied into the rotors' permutations,
+ *  with no parsing of cycles.
+ *  @author Mohammed Abu-Sharkh
+ */
+class ConfigImage {
+
+    /** First four bytes of an image: "ENIM". */
+    static final int MAGIC = 0x454e494d;
+    /** Version of the image format. */
+    static final int VERSION = 1;
+    /** Suffix added to a configuration file's name to name its image. */
+    static final String SUFFIX = ".img";
+    /** Length of the header in bytes. */
+    static final int HEADER = 32;
+
+    /** Write the image of the configuration file named ARGS[0] to the
+     *  file named ARGS[1], or to ARGS[0] + SUFFIX if there is no
+     *  ARGS[1]. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("usage: java enigma.ConfigImage CONFIG [IMAGE]");
+            }
+            Path config = Paths.get(args[0]);
+            write(config, args.length > 1 ? Paths.get(args[1])
+                  : imageOf(config));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the name of the image of CONFIG. */
+    static Path imageOf(Path config) {
+        return config.resolveSibling(config.getFileName() + SUFFIX);
+    }
+
+    /** Write the image of the configuration file CONFIG to IMAGE. */
+    static void write(Path config, Path image) throws IOException {
+        long size = Files.size(config);
+        long modified = Files.getLastModifiedTime(config).toMillis();
+        Machine mach = Main.readMachine(config.toString());
+        Alphabet alpha = mach.alphabet();
+        int n = alpha.size();
+        List<Rotor> rotors = new ArrayList<>(mach.allRotors());
+        int length = 4 + 2 * n + 12;
+        for (Rotor rotor : rotors) {
+            length += 1 + 4 + 2 * rotor.name().length() + 4
+                + 2 * notches(rotor).length() + 8 * n;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(HEADER);
+        putString(buf, alphabet(alpha));
+        buf.putInt(mach.numRotors()).putInt(mach.numPawls());
+        buf.putInt(rotors.size());
+        for (Rotor rotor : rotors) {
+            buf.put((byte) (rotor.reflecting() ? 'R'
+                            : rotor.rotates() ? 'M' : 'N'));
+            putString(buf, rotor.name());
+            putString(buf, notches(rotor));
+            Permutation perm = rotor.permutation();
+            for (int i = 0; i < n; i++) {
+                buf.putInt(perm.permute(i));
+            }
+            for (int i = 0; i < n; i++) {
+                buf.putInt(perm.invert(i));
+            }
+        }
+        buf.flip();
+        buf.position(HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        buf.position(0);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified)
+            .putInt(length).putInt((int) crc.getValue());
+        buf.position(0);
+        try (FileChannel out = FileChannel.open(image,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+
+    /** Return the machine, with no rotors inserted, described by the
+     *  image of the configuration file CONFIG, or null if there is no
+     *  current image.  An image that cannot be read or is cut short
+     *  counts as missing; any other failure propagates. */
+    static Machine load(Path config) {
+        Path image = imageOf(config);
+        try (FileChannel channel = FileChannel.open(image)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || buf.getLong(8) != Files.size(config)
+                || buf.getLong(16)
+                   != Files.getLastModifiedTime(config).toMillis()
+                || buf.getInt(24) != size - HEADER) {
+                return null;
+            }
+            buf.position(HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(buf);
+            if ((int) crc.getValue() != buf.getInt(28)) {
+                return null;
+            }
+            buf.position(HEADER);
+            return read(buf);
+        } catch (IOException | BufferUnderflowException excp) {
+            return null;
+        }
+    }
+
+    /** Return the machine described by the body of an image in BUF,
+     *  starting at its position. */
+    private static Machine read(ByteBuffer buf) {
+        Alphabet alpha = new Alphabet(getString(buf));
+        int n = alpha.size();
+        int numRotors = buf.getInt(), pawls = buf.getInt();
+        int count = buf.getInt();
+        List<Rotor> rotors = new ArrayList<>();
+        for (int r = 0; r < count; r++) {
+            char kind = (char) buf.get();
+            String name = getString(buf);
+            String notches = getString(buf);
+            int[] forward = new int[n], inverse = new int[n];
+            buf.asIntBuffer().get(forward);
+            buf.position(buf.position() + 4 * n);
+            buf.asIntBuffer().get(inverse);
+            buf.position(buf.position() + 4 * n);
+            Permutation perm = new Permutation(alpha, forward, inverse);
+            switch (kind) {
+            case 'M':
+                rotors.add(new MovingRotor(name, perm, notches));
+                break;
+            case 'N':
+                rotors.add(new FixedRotor(name, perm));
+                break;
+            case 'R':
+                rotors.add(new Reflector(name, perm));
+                break;
+            default:
+                throw error("bad rotor kind in image");
+            }
+        }
+        return new Machine(alpha, numRotors, pawls, rotors);
+    }
+
+    /** Return the characters of ALPHA, in order. */
+    private static String alphabet(Alphabet alpha) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < alpha.size(); i++) {
+            result.append(alpha.toChar(i));
+        }
+        return result.toString();
+    }
+
+    /** Return the characters at which ROTOR has notches. */
+    private static String notches(Rotor rotor) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < rotor.size(); i++) {
+            if (rotor.notchAt(i)) {
+                result.append(rotor.alphabet().toChar(i));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Append S, preceded by its length, to BUF. */
+    private static void putString(ByteBuffer buf, String s) {
+        buf.putInt(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /** Return the string, preceded by its length, at BUF's position. */
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || 2L * length > buf.remaining()) {
+            throw error("bad string in image");
+        }
+        char[] chars = new char[length];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + 2 * length);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,123 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.zip.CRC32;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with every kind of rotor. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Settings line for the test message. */
+    private static final String SETTINGS =
+        "B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return the conversion of a test message by MACH, set up by
+     *  SETTINGS. */
+    private static String convert(Machine mach) {
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        return mach.convert("FROMHISSHOULDERHIAWATHATOOKTHECAMERA");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void imagesLoadUntilStale() throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        Path image = ConfigImage.imageOf(config);
+        try {
+            Files.writeString(config, CONFIG);
+            assertNull(ConfigImage.load(config));
+            ConfigImage.write(config, image);
+            Machine loaded = ConfigImage.load(config);
+            assertNotNull(loaded);
+            assertEquals(5, loaded.numRotors());
+            assertEquals(3, loaded.numPawls());
+            assertEquals(5, loaded.allRotors().size());
+            assertEquals(convert(ConfigParser.read(config.toString())),
+                         convert(loaded));
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                         Main.configure(config.toString(), SETTINGS)
+                         .convert("FROMHISSHOULDERHIAWATHA"));
+            Files.writeString(config, CONFIG + " ");
+            assertNull(ConfigImage.load(config));
+        } finally {
+            Files.deleteIfExists(image);
+            Files.delete(config);
+        }
+    }
+
+    @Test
+    public void corruptImagesAreIgnored() throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        Path image = ConfigImage.imageOf(config);
+        try {
+            Files.writeString(config, CONFIG);
+            ConfigImage.write(config, image);
+            try (FileChannel out = FileChannel.open(image,
+                     StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(new byte[] {7}),
+                          ConfigImage.HEADER + 5);
+            }
+            assertNull(ConfigImage.load(config));
+        } finally {
+            Files.deleteIfExists(image);
+            Files.delete(config);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void badCurrentImagesAreReported() throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        Path image = ConfigImage.imageOf(config);
+        try {
+            Files.writeString(config, CONFIG);
+            ConfigImage.write(config, image);
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(image))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(ConfigImage.HEADER + 4 + 2 * 26 + 12, (byte) 'X');
+            buf.position(ConfigImage.HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(buf);
+            buf.putInt(28, (int) crc.getValue());
+            try (FileChannel out = FileChannel.open(image,
+                     StandardOpenOption.WRITE)) {
+                out.write(buf.position(0));
+            }
+            ConfigImage.load(config);
+        } finally {
+            Files.deleteIfExists(image);
+            Files.delete(config);
+        }
+    }
+}
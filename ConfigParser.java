@@ -0,0 +1,221 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A reader of configuration files in one pass over their text.  A
+ *  configuration is an alphabet, the numbers of rotor slots and pawls,
+ *  and a list of rotors, each a name, a kind ('M' followed by notches,
+ *  'N' or 'R') and the cycles of its permutation, all separated by
+ *  whitespace.  The cycles of a rotor are not parsed until the rotor is
+ *  first inserted in a machine: the parser only checks that they are
+ *  there and notes where they are, so reading a bank of thousands of
+ *  rotors costs little more than scanning its text.  Errors, including
+ *  those in cycles found later, are reported with the line and column
+ *  at which they occur, as "FILE:LINE:COLUMN: message".  The alphabet
+ *  "00-FF" is that of ByteMachine, whose symbols are written in
+ *  hexadecimal.
+ *  @author Mohammed Abu-Sharkh
+ */
+class ConfigParser {
+
+    /** Return the machine, with no rotors inserted, described by the
+     *  configuration file named NAME, in the default character set. */
+    static Machine read(String name) {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(name)),
+                              Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        return new ConfigParser(name, text).parse();
+    }
+
+    /** A parser of TEXT, which came from SOURCE. */
+    ConfigParser(String source, String text) {
+        _source = source;
+        _text = text;
+    }
+
+    /** Return the machine, with no rotors inserted, that my text
+     *  describes. */
+    Machine parse() {
+        if (!advance()) {
+            throw error("%s: empty configuration", _source);
+        }
+        boolean bytes = token().equalsIgnoreCase(ByteMachine.BYTES);
+        Alphabet alpha = bytes ? ByteMachine.ALPHABET : new Alphabet(token());
+        int numRotors = nextInt("number of rotor slots");
+        int pawls = nextInt("number of pawls");
+        if (pawls > numRotors) {
+            throw errorHere("must hav more rotors than pawls.");
+        }
+        RotorBank bank = new RotorBank();
+        boolean more = advance();
+        if (!more) {
+            throw errorHere("no rotors");
+        }
+        while (more) {
+            String name = token().toUpperCase();
+            if (!advance()) {
+                throw errorHere("rotor %s has no kind", name);
+            }
+            String kind = token();
+            if ("MNR".indexOf(kind.charAt(0)) < 0) {
+                throw errorHere("bad rotor kind '%c'", kind.charAt(0));
+            }
+            IntFunction<String> notches = where(kind, _tokLine, _tokCol);
+            if (!advance() || !tokenHas('(')) {
+                throw errorHere("rotor %s has no cycles", name);
+            }
+            int start = _tokStart, line = _tokLine, col = _tokCol;
+            int end;
+            do {
+                end = _tokEnd;
+                more = advance();
+            } while (more && tokenHas('('));
+            if (_text.charAt(end - 1) != ')') {
+                throw error("%s:%d:%d: Missing parentheses.", _source, line,
+                            col);
+            }
+            String cycles = _text.substring(start, end);
+            bank.add(name, recipe(alpha, name, kind, notches, cycles,
+                                  where(cycles, line, col)));
+        }
+        return new Machine(alpha, numRotors, pawls, bank);
+    }
+
+    /** Return the recipe for a rotor of ALPHA named NAME of kind KIND
+     *  (with its notches) whose cycles are CYCLES.  NOTCHES and WHERE
+     *  give the positions of errors at an index in KIND and in CYCLES.
+     *  For the byte alphabet, the cycles and notches are in
+     *  hexadecimal.  The recipe holds only the text of CYCLES, not the
+     *  whole configuration. */
+    private static Supplier<Rotor> recipe(Alphabet alpha, String name,
+            String kind, IntFunction<String> notches, String cycles,
+            IntFunction<String> where) {
+        return () -> {
+            Permutation perm;
+            String marks = kind.substring(1);
+            if (alpha == ByteMachine.ALPHABET) {
+                perm = ByteMachine.permutation(cycles, where);
+                marks = ByteMachine.decode(marks, i -> notches.apply(i + 1));
+            } else {
+                perm = new Permutation(cycles, alpha, where);
+            }
+            try {
+                switch (kind.charAt(0)) {
+                case 'M':
+                    return new MovingRotor(name, perm, marks);
+                case 'N':
+                    return new FixedRotor(name, perm);
+                default:
+                    return new Reflector(name, perm);
+                }
+            } catch (EnigmaException excp) {
+                throw error("%s%s", notches.apply(0), excp.getMessage());
+            }
+        };
+    }
+
+    /** Return a function giving the "FILE:LINE:COLUMN: " prefix for an
+     *  error at index I of SPAN, a span of my text starting at line
+     *  LINE, column COL. */
+    private IntFunction<String> where(String span, int line, int col) {
+        String source = _source;
+        return i -> {
+            int l = line, c = col;
+            for (int k = 0; k < i; k++) {
+                if (span.charAt(k) == '\n') {
+                    l += 1;
+                    c = 1;
+                } else {
+                    c += 1;
+                }
+            }
+            return String.format("%s:%d:%d: ", source, l, c);
+        };
+    }
+
+    /** Advance to the next token and return its value as an integer,
+     *  where WHAT describes it. */
+    private int nextInt(String what) {
+        if (!advance()) {
+            throw errorHere("configuration file truncated: expected %s",
+                            what);
+        }
+        try {
+            return Integer.parseInt(token());
+        } catch (NumberFormatException excp) {
+            throw errorHere("expected %s, not %s", what, token());
+        }
+    }
+
+    /** Move to the next token, returning false if there is none. */
+    private boolean advance() {
+        String text = _text;
+        int pos = _pos;
+        while (pos < text.length()
+               && Character.isWhitespace(text.charAt(pos))) {
+            if (text.charAt(pos) == '\n') {
+                _line += 1;
+                _lineStart = pos + 1;
+            }
+            pos += 1;
+        }
+        _tokStart = pos;
+        _tokLine = _line;
+        _tokCol = pos - _lineStart + 1;
+        while (pos < text.length()
+               && !Character.isWhitespace(text.charAt(pos))) {
+            pos += 1;
+        }
+        _tokEnd = _pos = pos;
+        return _tokStart < _tokEnd;
+    }
+
+    /** Return the current token. */
+    private String token() {
+        return _text.substring(_tokStart, _tokEnd);
+    }
+
+    /** Return true iff the current token contains CH. */
+    private boolean tokenHas(char ch) {
+        for (int i = _tokStart; i < _tokEnd; i++) {
+            if (_text.charAt(i) == ch) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return an exception reporting the message formatted from MSGFORMAT
+     *  and ARGS at the current token. */
+    private EnigmaException errorHere(String msgFormat, Object... args) {
+        return error("%s:%d:%d: %s", _source, _tokLine, _tokCol,
+                     String.format(msgFormat, args));
+    }
+
+    /** Name of the source of my text. */
+    private final String _source;
+    /** The configuration. */
+    private final String _text;
+    /** Position in _text just past the current token. */
+    private int _pos;
+    /** Line number, from 1, at _pos, and the position at which that line
+     *  starts. */
+    private int _line = 1, _lineStart;
+    /** Bounds of the current token in _text. */
+    private int _tokStart, _tokEnd;
+    /** Line and column, from 1, of the current token. */
+    private int _tokLine, _tokCol;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ConfigParser and RotorBank
+ *  classes.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class ConfigParserTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration whose rotor BAD has a character outside the
+     *  alphabet in its cycles. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n"
+        + "bad M  (AB)\n  (C1)\n";
+
+    /** Return the message of the error raised by parsing TEXT, or null
+     *  if there is none. */
+    private static String parseError(String text) {
+        try {
+            new ConfigParser("t", text).parse();
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void rotorsBuiltWhenInserted() {
+        Machine mach = new ConfigParser("t", CONFIG).parse();
+        assertEquals(5, mach.numRotors());
+        assertEquals(3, mach.numPawls());
+        assertEquals(6, mach.bank().size());
+        assertEquals(0, mach.bank().built());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        assertEquals(5, mach.bank().built());
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                          mach.alphabet()));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertSame(mach.bank().get("B"), mach.copy().bank().get("B"));
+    }
+
+    @Test
+    public void errorsHavePositions() {
+        Machine mach = new ConfigParser("t", CONFIG).parse();
+        try {
+            mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "BAD"});
+            fail("bad cycles accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("t:10:5: '1' in cycle (C1) is not in the alphabet",
+                         excp.getMessage());
+        }
+        Machine bytes = new ConfigParser("t", "00-ff 2 0\nR R (0001)\n"
+                                         + "F N (0a0b)\n  (0c0g)\n").parse();
+        try {
+            bytes.insertRotors(new String[] {"R", "F"});
+            fail("bad hex digit accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(), excp.getMessage().startsWith(
+                    "t:4:7: bad hex digit 'g'"));
+        }
+        assertEquals("t:2:3: expected number of pawls, not x",
+                     parseError("AB\n2 x"));
+        assertEquals("t:3:1: must hav more rotors than pawls.",
+                     parseError("AB\n2\n3 R (AB)"));
+        assertEquals("t:2:8: rotor R has no cycles",
+                     parseError("AB\n2 1 r R"));
+        assertEquals("t:2:9: Missing parentheses.",
+                     parseError("AB\n2 1 r R (A B)"));
+        assertEquals("t:1:10: bad rotor kind 'X'",
+                     parseError("AB 2 1 r X (AB)"));
+    }
+}
@@ -0,0 +1,423 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Benchmarks of the encryption hot paths: Alphabet.toInt,
+ *  Permutation.permute and invert, Rotor.convertForward and
+ *  convertBackward, Machine.convert on single characters and on whole
+ *  messages, Lanes.convert on one character in each of LANES lanes,
+ *  ByteMachine.convert on blocks of bytes, and Main on files.  Alphabet
+ *  sizes, numbers of rotor slots and message lengths are varied.  Each
+ *  benchmark is warmed up for WARMUP iterations and then timed over
+ *  MEASURE iterations of about ITERATION_NANOS each.  For each
+ *  benchmark, one line is printed with the mean time per operation and
+ *  its standard deviation, the bytes allocated per operation by the
+ *  benchmarking thread and, for benchmarks on messages, the throughput
+ *  in characters per second.
+ *  <p>
+ *  This is a small stand-in for a JMH harness, which cannot be built
+ *  without network access.  Run it with "make bench", optionally setting
+ *  BENCH to a string that the names of the benchmarks to run must
+ *  contain.
+ *  @author Mohammed Abu-Sharkh
+ */
+public final class EnigmaBench {
+
+    /** Untimed iterations before measuring. */
+    static final int WARMUP = 3;
+    /** Timed iterations. */
+    static final int MEASURE = 5;
+    /** Target duration of an iteration. */
+    static final long ITERATION_NANOS = 100_000_000L;
+    /** Alphabet sizes.  The largest is neither compiled into tables nor
+     *  indexed densely. */
+    static final int[] SIZES = {26, 64, 256, 5000};
+    /** Numbers of rotor slots, including the reflector. */
+    static final int[] SLOTS = {3, 5, 8};
+    /** Message lengths, in characters. */
+    static final int[] LENGTHS = {64, 4096, 1 << 20};
+    /** Number of precomputed random inputs for single-character
+     *  benchmarks. */
+    static final int INPUTS = 1 << 10;
+    /** Number of lanes for the Lanes benchmarks. */
+    static final int LANES = 64;
+
+    /** Run the benchmarks whose names contain ARGS[0], or all of them if
+     *  ARGS is empty. */
+    public static void main(String... args) {
+        try {
+            new EnigmaBench(args.length > 0 ? args[0] : "").run();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A harness running the benchmarks whose names contain FILTER. */
+    EnigmaBench(String filter) {
+        _filter = filter;
+    }
+
+    /** Run my benchmarks. */
+    void run() throws IOException {
+        System.out.printf("%-24s %-28s %12s %10s %12s %10s%n", "benchmark",
+                          "params", "ns/op", "+-", "B/op", "chars/s");
+        for (int size : SIZES) {
+            Alphabet alpha = alphabet(size);
+            Random random = new Random(size);
+            String params = "size=" + size;
+            char[] chars = new char[INPUTS];
+            int[] indices = new int[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                indices[i] = random.nextInt(size);
+                chars[i] = alpha.toChar(indices[i]);
+            }
+            bench("Alphabet.toInt", params, 0, reps -> {
+                long sum = 0;
+                for (long r = 0; r < reps; r++) {
+                    sum += alpha.toInt(chars[(int) r & (INPUTS - 1)]);
+                }
+                return sum;
+            });
+            Permutation perm = new Permutation(cycles(size, random), alpha);
+            bench("Permutation.permute", params, 0, reps -> {
+                long sum = 0;
+                for (long r = 0; r < reps; r++) {
+                    sum += perm.permute(indices[(int) r & (INPUTS - 1)]);
+                }
+                return sum;
+            });
+            bench("Permutation.invert", params, 0, reps -> {
+                long sum = 0;
+                for (long r = 0; r < reps; r++) {
+                    sum += perm.invert(indices[(int) r & (INPUTS - 1)]);
+                }
+                return sum;
+            });
+            Rotor rotor = new MovingRotor("R", perm, "");
+            rotor.compile();
+            bench("Rotor.convertForward", params, 0, reps -> {
+                long sum = 0;
+                for (long r = 0; r < reps; r++) {
+                    if ((r & (INPUTS - 1)) == 0) {
+                        rotor.advance();
+                    }
+                    sum += rotor.convertForward(indices[(int) r
+                                                        & (INPUTS - 1)]);
+                }
+                return sum;
+            });
+            bench("Rotor.convertBackward", params, 0, reps -> {
+                long sum = 0;
+                for (long r = 0; r < reps; r++) {
+                    if ((r & (INPUTS - 1)) == 0) {
+                        rotor.advance();
+                    }
+                    sum += rotor.convertBackward(indices[(int) r
+                                                         & (INPUTS - 1)]);
+                }
+                return sum;
+            });
+            for (int slots : SLOTS) {
+                Machine mach = machine(alpha, slots, random);
+                String slotParams = params + " slots=" + slots;
+                bench("Machine.convert(int)", slotParams, 0, reps -> {
+                    long sum = 0;
+                    for (long r = 0; r < reps; r++) {
+                        sum += mach.convert(indices[(int) r
+                                                    & (INPUTS - 1)]);
+                    }
+                    return sum;
+                });
+                Lanes lanes = Lanes.create(mach, LANES);
+                int[] laneChars = new int[LANES];
+                bench("Lanes.convert", slotParams + " lanes=" + LANES, LANES,
+                      reps -> {
+                        long sum = 0;
+                        for (long r = 0; r < reps; r++) {
+                            lanes.convert(laneChars, laneChars);
+                            sum += laneChars[0];
+                        }
+                        return sum;
+                    });
+                if (size == ByteMachine.SIZE) {
+                    ByteMachine bytes = new ByteMachine(bytes(mach));
+                    byte[] data = new byte[LENGTHS[LENGTHS.length - 1]];
+                    random.nextBytes(data);
+                    bench("ByteMachine.convert",
+                          slotParams + " len=" + data.length, data.length,
+                          reps -> {
+                            long sum = 0;
+                            for (long r = 0; r < reps; r++) {
+                                bytes.convert(data, 0, data.length, data,
+                                              0);
+                                sum += data[0];
+                            }
+                            return sum;
+                        });
+                }
+                for (int length : LENGTHS) {
+                    String msg = message(alpha, length, random);
+                    bench("Machine.convert(String)",
+                          slotParams + " len=" + length, length, reps -> {
+                            long sum = 0;
+                            for (long r = 0; r < reps; r++) {
+                                sum += mach.convert(msg).charAt(0);
+                            }
+                            return sum;
+                        });
+                }
+            }
+        }
+        benchMain();
+    }
+
+    /** Benchmark Main on files of each of LENGTHS characters, with the
+     *  26-letter alphabet and 5 slots. */
+    private void benchMain() throws IOException {
+        if (!"Main".contains(_filter)) {
+            return;
+        }
+        Path dir = Files.createTempDirectory("enigma-bench");
+        try {
+            Random random = new Random(0);
+            Alphabet alpha = alphabet(26);
+            StringBuilder config = new StringBuilder();
+            config.append(alpha.toChar(0)).append('-')
+                .append(alpha.toChar(25)).append("\n5 4\n");
+            String[] names = {"R", "F1", "F2", "F3", "F4"};
+            for (int i = 0; i < names.length; i++) {
+                config.append(names[i]).append(' ')
+                    .append(i == 0 ? "R" : "M" + alpha.toChar(i))
+                    .append(' ')
+                    .append(i == 0 ? reflector(alpha) : cycles(26, random))
+                    .append('\n');
+            }
+            Path conf = Files.writeString(dir.resolve("bench.conf"),
+                                          config.toString());
+            Path out = dir.resolve("bench.out");
+            for (int length : LENGTHS) {
+                StringBuilder input =
+                    new StringBuilder("* R F1 F2 F3 F4 AAAA\n");
+                String msg = message(alpha, length, random);
+                for (int k = 0; k < length; k += 80) {
+                    input.append(msg, k, Math.min(length, k + 80))
+                        .append('\n');
+                }
+                Path in = Files.writeString(dir.resolve("bench.in"),
+                                            input.toString());
+                bench("Main", "size=26 slots=5 len=" + length, length,
+                      reps -> {
+                        for (long r = 0; r < reps; r++) {
+                            Main.main(conf.toString(), in.toString(),
+                                      out.toString());
+                        }
+                        return reps;
+                    });
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /** An operation to be timed. */
+    private interface Op {
+        /** Perform the operation REPS times, returning a value computed
+         *  from the results so that they are not optimized away. */
+        long run(long reps) throws IOException;
+    }
+
+    /** Time OP as benchmark NAME with parameters PARAMS, if it passes my
+     *  filter.  Each operation processes UNITS characters, or 0 if it is
+     *  not a message benchmark. */
+    private void bench(String name, String params, long units, Op op)
+        throws IOException {
+        if (!name.contains(_filter)) {
+            return;
+        }
+        long reps = 1;
+        for (int i = 0; i < WARMUP; i++) {
+            long elapsed = time(op, reps);
+            while (elapsed < ITERATION_NANOS / 4) {
+                reps *= 2;
+                elapsed = time(op, reps);
+            }
+            reps = Math.max(1, reps * ITERATION_NANOS / elapsed);
+        }
+        double[] nanos = new double[MEASURE];
+        long allocated = 0;
+        for (int i = 0; i < MEASURE; i++) {
+            long before = allocatedBytes();
+            nanos[i] = (double) time(op, reps) / reps;
+            allocated += allocatedBytes() - before;
+        }
+        double mean = 0, variance = 0;
+        for (double t : nanos) {
+            mean += t / MEASURE;
+        }
+        for (double t : nanos) {
+            variance += (t - mean) * (t - mean) / Math.max(1, MEASURE - 1);
+        }
+        String rate = units == 0 ? ""
+            : String.format("%.3g", units * 1e9 / mean);
+        System.out.printf("%-24s %-28s %12.1f %10.1f %12.1f %10s%n", name,
+                          params, mean, Math.sqrt(variance),
+                          (double) allocated / (reps * MEASURE), rate);
+    }
+
+    /** Return the time in nanoseconds taken by REPS repetitions of OP. */
+    private long time(Op op, long reps) throws IOException {
+        long start = System.nanoTime();
+        _sink += op.run(reps);
+        return Math.max(1, System.nanoTime() - start);
+    }
+
+    /** Return the number of bytes allocated so far by this thread. */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    /** Return an alphabet of SIZE characters.  The 64-character
+     *  alphabet is digits and upper-case Latin-1 letters; larger ones are
+     *  CJK ideographs.  None contain characters whose upper case is
+     *  outside the alphabet. */
+    static Alphabet alphabet(int size) {
+        if (size == 26) {
+            return new Alphabet("A-Z");
+        }
+        StringBuilder chars = new StringBuilder();
+        if (size == 64) {
+            chars.append("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+            for (char ch = '\u00c0'; chars.length() < size; ch++) {
+                chars.append(ch);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                chars.append((char) ('\u4e00' + i));
+            }
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return the cycles of a random permutation of the first SIZE
+     *  characters of ALPHABET(SIZE), chosen with RANDOM. */
+    static String cycles(int size, Random random) {
+        Alphabet alpha = alphabet(size);
+        List<Character> chars = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            chars.add(alpha.toChar(i));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < size) {
+            int len = 1 + random.nextInt(Math.min(size - i, size / 3 + 1));
+            result.append('(');
+            for (int k = 0; k < len; k++) {
+                result.append(chars.get(i + k));
+            }
+            result.append(") ");
+            i += len;
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the cycles of a reflector for ALPHA, which has an even
+     *  number of characters, pairing neighbors. */
+    static String reflector(Alphabet alpha) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < alpha.size(); i += 2) {
+            result.append('(').append(alpha.toChar(i))
+                .append(alpha.toChar(i + 1)).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return a machine over ALPHA with SLOTS slots, all but the reflector
+     *  moving, with random wiring and notches chosen with RANDOM. */
+    static Machine machine(Alphabet alpha, int slots, Random random) {
+        List<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[slots];
+        names[0] = "R";
+        rotors.add(new Reflector("R", new Permutation(reflector(alpha),
+                                                      alpha)));
+        for (int i = 1; i < slots; i++) {
+            names[i] = "M" + i;
+            String notches = "" + alpha.toChar(random.nextInt(alpha.size()))
+                + alpha.toChar(random.nextInt(alpha.size()));
+            rotors.add(new MovingRotor(names[i], new Permutation(
+                    cycles(alpha.size(), random), alpha), notches));
+        }
+        Machine mach = new Machine(alpha, slots, slots - 1, rotors);
+        mach.insertRotors(names);
+        return mach;
+    }
+
+    /** Return a machine with the wiring, notches and settings of MACH,
+     *  whose alphabet has 256 characters, over the byte alphabet. */
+    static Machine bytes(Machine mach) {
+        RotorSpec[] specs = mach.specs();
+        List<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            int[] forward = new int[ByteMachine.SIZE];
+            int[] inverse = new int[ByteMachine.SIZE];
+            StringBuilder notches = new StringBuilder();
+            for (int c = 0; c < ByteMachine.SIZE; c++) {
+                forward[c] = specs[i].permutation().permute(c);
+                inverse[c] = specs[i].permutation().invert(c);
+                if (specs[i].notchAt(c)) {
+                    notches.append((char) c);
+                }
+            }
+            Permutation perm =
+                new Permutation(ByteMachine.ALPHABET, forward, inverse);
+            names[i] = specs[i].name();
+            rotors.add(i == 0 ? new Reflector(names[i], perm)
+                       : new MovingRotor(names[i], perm,
+                                         notches.toString()));
+        }
+        Machine result = new Machine(ByteMachine.ALPHABET, specs.length,
+                                     mach.numPawls(), rotors);
+        result.insertRotors(names);
+        result.setPositions(mach.positions());
+        return result;
+    }
+
+    /** Return a random message of LENGTH characters of ALPHA, chosen with
+     *  RANDOM. */
+    static String message(Alphabet alpha, int length, Random random) {
+        char[] msg = new char[length];
+        for (int i = 0; i < length; i++) {
+            msg[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(msg);
+    }
+
+    /** Substring of the names of the benchmarks to run. */
+    private final String _filter;
+    /** Accumulated results of the benchmarks, so that they are not
+     *  optimized away. */
+    private long _sink;
+}
@@ -0,0 +1,265 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running Enigma service.  Configuration files are read once,
+ *  when the server starts, so a request pays only for setting up a
+ *  machine from shared rotor wiring and for converting its payload.
+ *  <p>
+ *  Requests and responses are frames: a 4-byte big-endian length
+ *  followed by that many bytes.  A request frame holds a 1-byte index
+ *  of a configuration (in the order given when starting the server), a
+ *  2-byte big-endian length, a settings line of that many UTF-8 bytes,
+ *  and the UTF-8 payload, which fills the rest of the frame.  The
+ *  payload is converted exactly as Main would convert an input file
+ *  consisting of the settings line followed by the payload; since the
+ *  machine is its own inverse, this both encrypts and decrypts.  A
+ *  response frame holds a 1-byte status, OK or FAILED, followed by the
+ *  UTF-8 output or error message.  A client may send any number of
+ *  requests on one connection; each gets its response in order.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class EnigmaServer {
+
+    /** Response status of a converted payload. */
+    static final int OK = 0;
+    /** Response status of a request that could not be converted. */
+    static final int FAILED = 1;
+    /** Largest frame accepted, in bytes. */
+    static final int MAX_FRAME = 1 << 26;
+
+    /** Serve Enigma requests, as specified by ARGS, where ARGS[0] is the
+     *  address to listen on and the remaining ARGS name configuration
+     *  files.  The address is a TCP port on the loopback interface if it
+     *  is a number, and otherwise the path of a Unix-domain socket, which
+     *  must not already exist.  Runs until killed.  Exits with code 1 if
+     *  the server cannot start. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2) {
+                throw error("usage: java enigma.EnigmaServer ADDRESS "
+                            + "CONFIG...");
+            }
+            List<Function<String, Machine>> configs = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                configs.add(Main.loadConfig(args[i]));
+            }
+            EnigmaServer server = new EnigmaServer(listen(args[0]), configs);
+            System.err.printf("listening on %s%n", server.address());
+            server.serve();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return a server channel bound to ADDRESS, as described for
+     *  main. */
+    static ServerSocketChannel listen(String address) throws IOException {
+        if (address.matches("\\d+")) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                              Integer.parseInt(address)));
+            return server;
+        }
+        ServerSocketChannel server =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(address));
+        return server;
+    }
+
+    /** A server accepting connections on SERVER and setting up machines
+     *  with CONFIGS, each of which returns a machine for a settings line
+     *  without its leading "* ", and may be called from several threads
+     *  at once. */
+    EnigmaServer(ServerSocketChannel server,
+                 List<Function<String, Machine>> configs) {
+        _server = server;
+        _configs = new ArrayList<>(configs);
+        _pool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "enigma-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Return the address I am listening on. */
+    SocketAddress address() throws IOException {
+        return _server.getLocalAddress();
+    }
+
+    /** Accept connections until I am closed, serving each on a thread of
+     *  its own. */
+    void serve() throws IOException {
+        while (_server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = _server.accept();
+            } catch (IOException excp) {
+                if (!_server.isOpen()) {
+                    return;
+                }
+                throw excp;
+            }
+            _pool.execute(() -> serve(client));
+        }
+    }
+
+    /** Stop accepting connections and close those that are open,
+     *  removing my socket file if I listen on a Unix-domain socket. */
+    void close() throws IOException {
+        SocketAddress addr = _server.getLocalAddress();
+        _server.close();
+        _pool.shutdownNow();
+        if (addr instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) addr).getPath());
+        }
+    }
+
+    /** Answer the requests arriving on CLIENT until it is closed. */
+    private void serve(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            byte[] frame;
+            while ((frame = readFrame(in)) != null) {
+                String result;
+                int status = OK;
+                try {
+                    result = convert(frame);
+                } catch (EnigmaException excp) {
+                    status = FAILED;
+                    result = excp.getMessage();
+                }
+                writeFrame(out, status, result);
+                out.flush();
+            }
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** Return the output for the request in FRAME. */
+    private String convert(byte[] frame) {
+        if (frame.length < 3) {
+            throw error("request too short");
+        }
+        int config = frame[0] & 0xff;
+        int settingsLength = (frame[1] & 0xff) << 8 | frame[2] & 0xff;
+        if (config >= _configs.size()) {
+            throw error("no configuration %d", config);
+        }
+        if (3 + settingsLength > frame.length) {
+            throw error("settings line overruns request");
+        }
+        String settings = new String(frame, 3, settingsLength, UTF_8);
+        String payload = new String(frame, 3 + settingsLength,
+                                    frame.length - 3 - settingsLength, UTF_8);
+        StringWriter output = new StringWriter();
+        try {
+            new MessageStream(new StringReader(settings + "\n" + payload),
+                              output, _configs.get(config)).process();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        return output.toString();
+    }
+
+    /** Return the body of the next frame from IN, or null at the end of
+     *  input. */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException excp) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME) {
+            throw error("bad frame length %d", length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /** Write a frame holding the 1-byte CODE followed by TEXT in UTF-8 to
+     *  OUT. */
+    static void writeFrame(DataOutputStream out, int code, String text)
+        throws IOException {
+        byte[] body = text.getBytes(UTF_8);
+        out.writeInt(body.length + 1);
+        out.writeByte(code);
+        out.write(body);
+    }
+
+    /** Send OUT a request to convert PAYLOAD with configuration CONFIG
+     *  set up by the settings line SETTINGS. */
+    static void request(DataOutputStream out, int config, String settings,
+                        String payload) throws IOException {
+        byte[] set = settings.getBytes(UTF_8);
+        byte[] body = payload.getBytes(UTF_8);
+        if (set.length > 0xffff) {
+            throw error("settings line too long");
+        }
+        out.writeInt(3 + set.length + body.length);
+        out.writeByte(config);
+        out.writeShort(set.length);
+        out.write(set);
+        out.write(body);
+        out.flush();
+    }
+
+    /** Return the output in the next response from IN, throwing an
+     *  EnigmaException with its message if the request failed. */
+    static String response(DataInputStream in) throws IOException {
+        byte[] frame = readFrame(in);
+        if (frame == null || frame.length == 0) {
+            throw error("connection closed");
+        }
+        String text = new String(frame, 1, frame.length - 1, UTF_8);
+        if (frame[0] != OK) {
+            throw error("%s", text);
+        }
+        return text;
+    }
+
+    /** Channel on which I accept connections. */
+    private final ServerSocketChannel _server;
+    /** Machine factories, by configuration index. */
+    private final List<Function<String, Machine>> _configs;
+    /** Threads serving connections. */
+    private final ExecutorService _pool;
+}
@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.List;
+
+/** The suite of all JUnit tests for the EnigmaServer class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class EnigmaServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with the rotors used below. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Settings line for the test messages. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Start a server on SERVER for CONFIG, run CLIENT against it over a
+     *  fresh connection, and stop the server. */
+    private void withServer(ServerSocketChannel server, Client client)
+        throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        Files.writeString(config, CONFIG);
+        EnigmaServer enigma = new EnigmaServer(server,
+                List.of(Main.loadConfig(config.toString())));
+        Thread serving = new Thread(() -> {
+            try {
+                enigma.serve();
+            } catch (IOException excp) {
+                return;
+            }
+        });
+        serving.start();
+        try (SocketChannel channel = SocketChannel.open(enigma.address())) {
+            client.run(new DataOutputStream(Channels.newOutputStream(channel)),
+                       new DataInputStream(Channels.newInputStream(channel)));
+        } finally {
+            enigma.close();
+            Files.delete(config);
+        }
+    }
+
+    /** A conversation with a server. */
+    private interface Client {
+        /** Send requests on OUT and read the responses from IN. */
+        void run(DataOutputStream out, DataInputStream in) throws IOException;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void tcpRequests() throws IOException {
+        withServer(EnigmaServer.listen("0"), (out, in) -> {
+            EnigmaServer.request(out, 0, SETTINGS,
+                                 "FROM his shoulder Hiawatha");
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW",
+                         EnigmaServer.response(in).trim());
+            EnigmaServer.request(out, 0, SETTINGS,
+                                 "QVPQS OKOIL PUBKJ ZPISF XDW");
+            assertEquals("FROMH ISSHO ULDER HIAWA THA",
+                         EnigmaServer.response(in).trim());
+            EnigmaServer.request(out, 1, SETTINGS, "A");
+            try {
+                EnigmaServer.response(in);
+                fail("missing configuration accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("no configuration 1", excp.getMessage());
+            }
+            EnigmaServer.request(out, 0, SETTINGS, "A1");
+            try {
+                EnigmaServer.response(in);
+                fail("bad character accepted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        });
+    }
+
+    @Test
+    public void unixDomainRequests() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("enigma.sock");
+        withServer(EnigmaServer.listen(socket.toString()), (out, in) -> {
+            EnigmaServer.request(out, 0, SETTINGS, "Took the camera\n"
+                                 + "of rosewood");
+            assertEquals("NAPRG FZGVU ABY\nUGVDD TGYFK\n",
+                         EnigmaServer.response(in)
+                         .replace(System.lineSeparator(), "\n"));
+        });
+        assertFalse(Files.exists(socket));
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,38 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** A measure of how much a candidate decryption looks like plain text,
+ *  where higher is better.  A Fitness may keep scratch state, so it need
+ *  not be thread-safe; searches use one per task.
+ *  @author Mohammed Abu-Sharkh
+ */
+interface Fitness {
+
+    /** Return the fitness of the first LEN characters of TEXT, given as
+     *  indices in the alphabet. */
+    double score(int[] text, int len);
+
+    /** Return the index of coincidence for an alphabet of SIZE
+     *  characters: the probability that two characters drawn without
+     *  replacement from the text are equal.  It does not depend on the
+     *  language, only on how unevenly its letters are used, and needs no
+     *  statistics beyond the text itself. */
+    static Fitness indexOfCoincidence(int size) {
+        int[] counts = new int[size];
+        return (text, len) -> {
+            if (len < 2) {
+                return 0;
+            }
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < len; i++) {
+                counts[text[i]] += 1;
+            }
+            long pairs = 0;
+            for (int c : counts) {
+                pairs += (long) c * (c - 1);
+            }
+            return (double) pairs / ((long) len * (len - 1));
+        };
+    }
+}
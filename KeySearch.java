@@ -0,0 +1,452 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the settings of a message.  Every
+ *  choice of reflector, rotor order and starting positions allowed by a
+ *  machine's configuration is tried, and the K candidates whose
+ *  decryptions are the fittest are kept.  The space of (order, positions)
+ *  pairs is divided among fork-join tasks, which the pool balances by
+ *  work stealing.  Each task decrypts LANES trial positions of one order
+ *  at a time in lockstep, with Lanes, and reuses its buffers, so trial
+ *  decryptions allocate nothing.  The machines of this
+ *  package have no ring settings, so there are none to search.
+ *  @author Mohammed Abu-Sharkh
+ */
+class KeySearch {
+
+    /** Largest number of (order, positions) pairs tried by one task
+     *  without splitting. */
+    static final int LEAF = 1 << 10;
+    /** Number of positions decrypted together. */
+    static final int LANES = 64;
+
+    /** Search for the settings of a ciphertext, as specified by ARGS:
+     *  options "-k K" (report the best K candidates; default 10), "-t
+     *  THREADS" (default: all processors) and "-w ROTORS" (try only the
+     *  rotor order ROTORS, a space-separated list of names starting with
+     *  the reflector) and "-p CORPUS" (recover the plugboard of each of
+     *  the best candidates by hill climbing, scoring with the binary
+     *  n-gram table in the file CORPUS, or with the trigrams of the
+     *  text in it if it is not a table), followed by the name of a
+     *  configuration file and of a file holding the ciphertext.
+     *  Characters of the ciphertext that are not in the alphabet, even
+     *  when upper-cased, are ignored.  Prints the best candidates,
+     *  fittest first, as score and settings line. */
+    public static void main(String... args) {
+        try {
+            int k = 10, threads = Runtime.getRuntime().availableProcessors();
+            String[] order = null;
+            String corpus = null;
+            int i = 0;
+            for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+                switch (args[i]) {
+                case "-k":
+                    k = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-t":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-w":
+                    order = args[i + 1].toUpperCase().trim().split("\\s+");
+                    break;
+                case "-p":
+                    corpus = args[i + 1];
+                    break;
+                default:
+                    throw error("unknown option %s", args[i]);
+                }
+            }
+            if (args.length - i != 2) {
+                throw error("usage: java enigma.KeySearch [-k K] [-t THREADS]"
+                            + " [-w ROTORS] [-p CORPUS] CONFIG CIPHERTEXT");
+            }
+            Machine template = Main.readMachine(args[i]);
+            KeySearch search = new KeySearch(template, () -> Fitness
+                    .indexOfCoincidence(template.alphabet().size()));
+            int[] text = indices(template.alphabet(),
+                    new String(Files.readAllBytes(Paths.get(args[i + 1]))));
+            List<String[]> orders = order == null ? search.orders()
+                : Collections.singletonList(order);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<Candidate> best = search.search(text, orders, k, pool);
+            if (corpus != null) {
+                Path file = Paths.get(corpus);
+                NGrams table = NGrams.isTable(file)
+                    ? NGrams.load(template.alphabet(), file)
+                    : NGrams.train(template.alphabet(), 3,
+                                   new String(Files.readAllBytes(file)));
+                best = search.plugboards(text, best, table, pool);
+            }
+            pool.shutdown();
+            for (Candidate c : best) {
+                System.out.printf("%.6f %s%n", c.score(), c);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search over the rotors and slots of TEMPLATE, scoring with
+     *  fitness functions from FITNESS. */
+    KeySearch(Machine template, Supplier<Fitness> fitness) {
+        _alphabet = template.alphabet();
+        _numRotors = template.numRotors();
+        _pawls = template.numPawls();
+        _rotors = new ArrayList<>(template.allRotors());
+        _bank = template.bank();
+        _fitness = fitness;
+    }
+
+    /** Use PLUGBOARD, or none if it is null, in all trial decryptions. */
+    void setPlugboard(Permutation plugboard) {
+        _plugboard = plugboard;
+    }
+
+    /** Return every rotor order allowed by my configuration, as names
+     *  starting with the reflector: a reflector, then distinct
+     *  non-moving rotors for the slots without pawls, then distinct
+     *  moving rotors for the slots with pawls. */
+    List<String[]> orders() {
+        List<String[]> result = new ArrayList<>();
+        String[] order = new String[_numRotors];
+        for (Rotor reflector : _rotors) {
+            if (reflector.reflecting()) {
+                order[0] = reflector.name().toUpperCase();
+                fill(order, 1, result);
+            }
+        }
+        return result;
+    }
+
+    /** Add to RESULT every completion of ORDER from slot SLOT on. */
+    private void fill(String[] order, int slot, List<String[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        boolean moving = slot >= _numRotors - _pawls;
+        for (Rotor rotor : _rotors) {
+            String name = rotor.name().toUpperCase();
+            if (!rotor.reflecting() && rotor.rotates() == moving
+                && !Arrays.asList(order).subList(1, slot).contains(name)) {
+                order[slot] = name;
+                fill(order, slot + 1, result);
+            }
+        }
+    }
+
+    /** Return the K fittest candidates for decrypting CIPHERTEXT (as
+     *  alphabet indices) with each of ORDERS at every starting position,
+     *  fittest first, using POOL. */
+    List<Candidate> search(int[] ciphertext, List<String[]> orders, int k,
+                           ForkJoinPool pool) {
+        if (k <= 0) {
+            throw error("must keep at least one candidate");
+        }
+        long per = 1;
+        for (int i = 1; i < _numRotors; i++) {
+            per = Math.multiplyExact(per, _alphabet.size());
+        }
+        long total = Math.multiplyExact(per, orders.size());
+        PriorityQueue<Candidate> best =
+            pool.invoke(new Search(ciphertext, orders, k, per, 0, total));
+        List<Candidate> result = new ArrayList<>(best);
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    /** Return CANDIDATES for CIPHERTEXT, each with the plugboard found by
+     *  a PlugboardClimber scoring with FITNESS, which must be
+     *  thread-safe, and rescored with it, fittest first.  The candidates
+     *  are climbed in parallel on POOL. */
+    List<Candidate> plugboards(int[] ciphertext, List<Candidate> candidates,
+                               Fitness fitness, ForkJoinPool pool) {
+        Candidate[] climbed = new Candidate[candidates.size()];
+        pool.invoke(new Climbs(ciphertext, candidates, fitness, climbed, 0,
+                               climbed.length));
+        List<Candidate> result = new ArrayList<>(Arrays.asList(climbed));
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    /** Return CANDIDATE for CIPHERTEXT with the plugboard found by a
+     *  PlugboardClimber scoring with FITNESS, and rescored with it. */
+    private Candidate climb(int[] ciphertext, Candidate candidate,
+                            Fitness fitness) {
+        Machine mach = new Machine(_alphabet, _numRotors, _pawls, _bank);
+        mach.insertRotors(candidate.order());
+        mach.setPositions(candidate.positions());
+        PlugboardClimber climber =
+            new PlugboardClimber(mach, ciphertext, fitness);
+        int[] plug = climber.climb(_plugboard == null
+                                   ? climber.identity()
+                                   : PlugboardClimber.pairs(_plugboard));
+        return new Candidate(climber.score(), candidate.order(),
+                             candidate.positions(), _alphabet,
+                             climber.cycles(plug));
+    }
+
+    /** Return the indices of the characters of TEXT that are in ALPHA,
+     *  after upper-casing. */
+    static int[] indices(Alphabet alpha, String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int k = alpha.indexOf(Character.toUpperCase(text.charAt(i)));
+            if (k >= 0) {
+                result[n] = k;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** A rotor order and starting positions, with the fitness of the
+     *  decryption they give. */
+    static class Candidate implements Comparable<Candidate> {
+        /** A candidate with fitness SCORE for rotor names ORDER, starting
+         *  at positions POSNS (by slot, the reflector's first) of ALPHA. */
+        Candidate(double score, String[] order, int[] posns,
+                  Alphabet alpha) {
+            this(score, order, posns, alpha, "");
+        }
+
+        /** As for Candidate(SCORE, ORDER, POSNS, ALPHA), with the
+         *  plugboard whose cycles are PLUGBOARD. */
+        Candidate(double score, String[] order, int[] posns,
+                  Alphabet alpha, String plugboard) {
+            _score = score;
+            _order = order;
+            _posns = posns;
+            _alphabet = alpha;
+            _plugboard = plugboard;
+        }
+
+        /** Return my fitness. */
+        double score() {
+            return _score;
+        }
+
+        /** Return my rotor names, the reflector's first. */
+        String[] order() {
+            return _order;
+        }
+
+        /** Return my starting positions, by slot. */
+        int[] positions() {
+            return _posns;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(_score, other._score);
+        }
+
+        /** Return my plugboard's cycles, or "" if I have none. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return my settings line. */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("*");
+            for (String name : _order) {
+                result.append(' ').append(name);
+            }
+            result.append(' ');
+            for (int i = 1; i < _posns.length; i++) {
+                result.append(_alphabet.toChar(_posns[i]));
+            }
+            if (!_plugboard.isEmpty()) {
+                result.append(' ').append(_plugboard);
+            }
+            return result.toString();
+        }
+
+        /** Fitness. */
+        private final double _score;
+        /** Rotor names. */
+        private final String[] _order;
+        /** Starting positions. */
+        private final int[] _posns;
+        /** Alphabet of the positions. */
+        private final Alphabet _alphabet;
+        /** Cycles of the plugboard, or "". */
+        private final String _plugboard;
+    }
+
+    /** The task of trying the (order, positions) pairs numbered LO to
+     *  HI-1, where pair number I is order I / PER at the positions whose
+     *  digits, in the alphabet size as base, are I % PER. */
+    /** Climbs the plugboards of a range of candidates, each in its own
+     *  task. */
+    private class Climbs extends RecursiveAction {
+        /** A task climbing CANDIDATES LO..HI-1 for CIPHERTEXT with
+         *  FITNESS, storing the results at the same indices of INTO. */
+        Climbs(int[] ciphertext, List<Candidate> candidates,
+               Fitness fitness, Candidate[] into, int lo, int hi) {
+            _ciphertext = ciphertext;
+            _candidates = candidates;
+            _fitness = fitness;
+            _into = into;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Climbs(_ciphertext, _candidates, _fitness,
+                                     _into, _lo, mid),
+                          new Climbs(_ciphertext, _candidates, _fitness,
+                                     _into, mid, _hi));
+            } else if (_hi > _lo) {
+                _into[_lo] = climb(_ciphertext, _candidates.get(_lo),
+                                   _fitness);
+            }
+        }
+
+        /** The ciphertext. */
+        private final int[] _ciphertext;
+        /** Candidates to climb. */
+        private final List<Candidate> _candidates;
+        /** Scores plaintexts. */
+        private final Fitness _fitness;
+        /** Climbed candidates, by index. */
+        private final Candidate[] _into;
+        /** Range of candidates. */
+        private final int _lo, _hi;
+    }
+
+    private class Search extends RecursiveTask<PriorityQueue<Candidate>> {
+        /** A task for pairs LO..HI-1 of the search described above, for
+         *  CIPHERTEXT, ORDERS and K. */
+        Search(int[] ciphertext, List<String[]> orders, int k, long per,
+               long lo, long hi) {
+            _ciphertext = ciphertext;
+            _orders = orders;
+            _k = k;
+            _per = per;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<Candidate> compute() {
+            if (_hi - _lo > LEAF) {
+                long mid = (_lo + _hi) >>> 1;
+                Search left = new Search(_ciphertext, _orders, _k, _per,
+                                         _lo, mid);
+                left.fork();
+                PriorityQueue<Candidate> result =
+                    new Search(_ciphertext, _orders, _k, _per, mid, _hi)
+                    .compute();
+                for (Candidate c : left.join()) {
+                    offer(result, c);
+                }
+                return result;
+            }
+            PriorityQueue<Candidate> result = new PriorityQueue<>();
+            Fitness fitness = _fitness.get();
+            int[] cipher = _ciphertext;
+            int[][] texts = new int[LANES][cipher.length];
+            int[][] starts = new int[LANES][_numRotors];
+            int size = _alphabet.size();
+            Lanes lanes = null;
+            int filled = 0;
+            long current = -1;
+            Machine mach = new Machine(_alphabet, _numRotors, _pawls, _bank);
+            for (long i = _lo; i < _hi; i++) {
+                long order = i / _per;
+                if (order != current) {
+                    mach.insertRotors(_orders.get((int) order));
+                    mach.setPlugboard(_plugboard);
+                    lanes = Lanes.create(mach, LANES);
+                    current = order;
+                }
+                int[] posns = starts[filled];
+                long rest = i % _per;
+                for (int slot = _numRotors - 1; slot > 0; slot--) {
+                    posns[slot] = (int) (rest % size);
+                    rest /= size;
+                }
+                lanes.setPositions(filled, posns);
+                filled += 1;
+                if (filled == LANES || i + 1 == _hi
+                    || (i + 1) / _per != order) {
+                    lanes.convert(cipher, cipher.length, texts);
+                    for (int lane = 0; lane < filled; lane++) {
+                        double score =
+                            fitness.score(texts[lane], cipher.length);
+                        if (result.size() < _k
+                            || score > result.peek().score()) {
+                            offer(result, new Candidate(score,
+                                    _orders.get((int) order),
+                                    starts[lane].clone(), _alphabet));
+                        }
+                    }
+                    filled = 0;
+                }
+            }
+            return result;
+        }
+
+        /** Add C to BEST, dropping the least fit if BEST then has more
+         *  than _k candidates. */
+        private void offer(PriorityQueue<Candidate> best, Candidate c) {
+            best.add(c);
+            if (best.size() > _k) {
+                best.poll();
+            }
+        }
+
+        /** Ciphertext, as alphabet indices. */
+        private final int[] _ciphertext;
+        /** Rotor orders. */
+        private final List<String[]> _orders;
+        /** Number of candidates kept. */
+        private final int _k;
+        /** Number of positions per order. */
+        private final long _per;
+        /** Range of pairs tried. */
+        private final long _lo, _hi;
+    }
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+    /** Number of slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+    /** Available rotors. */
+    private final List<Rotor> _rotors;
+    /** The bank holding _rotors, shared by all trial machines. */
+    private final RotorBank _bank;
+    /** Source of fitness functions, one per task. */
+    private final Supplier<Fitness> _fitness;
+    /** Plugboard used in trials, or null. */
+    private Permutation _plugboard;
+}
@@ -0,0 +1,122 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A plaintext long enough for its statistics to stand out. */
+    static final String PLAIN =
+        "Should you ask me whence these stories whence these legends and "
+        + "traditions with the odors of the forest with the dew and damp "
+        + "of meadows with the curling smoke of wigwams with the rushing "
+        + "of great rivers with their frequent repetitions and their wild "
+        + "reverberations as of thunder in the mountains I should answer I "
+        + "should tell you from the forests and the prairies";
+
+    /** Return the encryption of PLAIN with a machine having NUMROTORS
+     *  slots and PAWLS pawls, holding the naval rotors ROTORS at
+     *  SETTING. */
+    static String encrypt(int numRotors, int pawls, String rotors,
+                          String setting) {
+        Machine mach = new Machine(UPPER, numRotors, pawls, navalRotors());
+        mach.insertRotors(rotors.split(" "));
+        mach.setRotors(setting);
+        return mach.convert(PLAIN.replace(" ", ""));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void ordersFollowSlots() {
+        KeySearch search = new KeySearch(new Machine(UPPER, 5, 3,
+                navalRotors()), () -> Fitness.indexOfCoincidence(26));
+        List<String[]> orders = search.orders();
+        assertEquals(2 * 2 * 8 * 7 * 6, orders.size());
+        for (String[] order : orders) {
+            assertTrue(order[0].equals("B") || order[0].equals("C"));
+            assertTrue(order[1].equals("BETA") || order[1].equals("GAMMA"));
+        }
+    }
+
+    @Test
+    public void findsOrderAndPositions() {
+        String cipher = encrypt(3, 2, "C VI II", "KE");
+        KeySearch search = new KeySearch(new Machine(UPPER, 3, 2,
+                navalRotors()), () -> Fitness.indexOfCoincidence(26));
+        List<KeySearch.Candidate> best =
+            search.search(KeySearch.indices(UPPER, cipher), search.orders(),
+                          3, ForkJoinPool.commonPool());
+        assertEquals(3, best.size());
+        assertEquals("* C VI II KE", best.get(0).toString());
+        assertTrue(best.get(0).score() > best.get(1).score());
+    }
+
+    @Test
+    public void searchesGivenOrder() {
+        String cipher = encrypt(4, 3, "B III IV I", "QMZ");
+        KeySearch search = new KeySearch(new Machine(UPPER, 4, 3,
+                navalRotors()), () -> Fitness.indexOfCoincidence(26));
+        List<KeySearch.Candidate> best =
+            search.search(KeySearch.indices(UPPER, cipher),
+                          Collections.singletonList(
+                              new String[] {"B", "III", "IV", "I"}),
+                          1, ForkJoinPool.commonPool());
+        assertEquals("* B III IV I QMZ", best.get(0).toString());
+    }
+
+    @Test
+    public void plugboardsRunOnGivenPool() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(AQ) (EP) (SX) (TZ)", UPPER));
+        int[] cipher = KeySearch.indices(UPPER,
+                mach.convert(PLAIN.replace(" ", "")));
+        String[] order = {"B", "BETA", "III", "IV", "I"};
+        List<KeySearch.Candidate> candidates = Arrays.asList(
+            new KeySearch.Candidate(0, order, new int[] {0, 0, 23, 11, 4},
+                                    UPPER),
+            new KeySearch.Candidate(0, order, new int[] {0, 0, 1, 2, 3},
+                                    UPPER));
+        NGrams trigrams = NGrams.train(UPPER, 3, PLAIN);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Fitness fitness = (text, len) -> {
+            threads.add(Thread.currentThread());
+            return trigrams.score(text, len);
+        };
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            List<KeySearch.Candidate> best =
+                new KeySearch(mach, () -> fitness)
+                .plugboards(cipher, candidates, fitness, pool);
+            assertEquals("* B BETA III IV I AXLE (AQ) (EP) (SX) (TZ)",
+                         best.get(0).toString());
+            assertEquals(2, best.size());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+}
@@ -0,0 +1,166 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Many machine states advanced in lockstep: LANES copies of one
+ *  machine's rotors and plugboard, each at its own settings, pressing
+ *  one key per lane at a time.  Trial decryptions of one ciphertext at
+ *  many starting positions, as in a key search, are the typical use.
+ *  <p>
+ *  State is kept by slot, not by lane (the settings of slot I for all
+ *  lanes are _posns[I]), and each rotor is applied to every lane before
+ *  the next, so that each pass is a gather from one table plus an index
+ *  computation over consecutive elements.  The scalar loops here are
+ *  simple enough for the JIT to unroll; create() substitutes
+ *  VectorLanes, which does them with the incubating Vector API, when it
+ *  was built (by "make vector") and its module is enabled
+ *  (--add-modules jdk.incubator.vector).
+ *  @author Mohammed Abu-Sharkh
+ */
+class Lanes {
+
+    /** Name of the vectorized subclass, which is not in the default
+     *  build. */
+    static final String VECTOR_CLASS = "enigma.VectorLanes";
+
+    /** Return a Lanes for TEMPLATE with LANES lanes, vectorized if
+     *  possible. */
+    static Lanes create(Machine template, int lanes) {
+        try {
+            return (Lanes) Class.forName(VECTOR_CLASS)
+                .getDeclaredConstructor(Machine.class, int.class)
+                .newInstance(template, lanes);
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new Lanes(template, lanes);
+        }
+    }
+
+    /** LANES copies of TEMPLATE's rotors and plugboard, all at TEMPLATE's
+     *  current settings. */
+    Lanes(Machine template, int lanes) {
+        if (lanes <= 0) {
+            throw error("must have at least one lane");
+        }
+        _specs = template.specs();
+        if (_specs.length != template.numRotors()) {
+            throw error("bad config.");
+        }
+        _lanes = lanes;
+        _size = template.alphabet().size();
+        _stepper = new Stepper(_specs, template.numPawls());
+        _posns = new int[_specs.length][lanes];
+        _plugboard = new int[_size];
+        Permutation plugboard = template.plugboard();
+        for (int c = 0; c < _size; c++) {
+            _plugboard[c] = plugboard == null ? c : plugboard.permute(c);
+        }
+        _chars = new int[lanes];
+        int[] posns = template.positions();
+        for (int lane = 0; lane < lanes; lane++) {
+            setPositions(lane, posns);
+        }
+    }
+
+    /** Return my number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return the settings of lane LANE, by slot, the reflector's
+     *  first. */
+    int[] positions(int lane) {
+        int[] result = new int[_posns.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _posns[i][lane];
+        }
+        return result;
+    }
+
+    /** Set the settings of lane LANE to POSNS, by slot, the reflector's
+     *  first. */
+    void setPositions(int lane, int[] posns) {
+        if (posns.length != _posns.length) {
+            throw new EnigmaException("bad config.");
+        }
+        for (int i = 0; i < posns.length; i++) {
+            if (posns[i] < 0 || posns[i] >= _size) {
+                throw new EnigmaException("Index out of bounds.");
+            }
+            _posns[i][lane] = posns[i];
+        }
+    }
+
+    /** Press a key in every lane: for each lane, convert IN[LANE] after
+     *  advancing the lane's rotors, putting the result in OUT[LANE].
+     *  IN and OUT may be the same array. */
+    void convert(int[] in, int[] out) {
+        step();
+        System.arraycopy(in, 0, out, 0, _lanes);
+        path(out);
+    }
+
+    /** Convert the first LEN characters of TEXT in every lane, putting
+     *  lane LANE's result in OUT[LANE]. */
+    void convert(int[] text, int len, int[][] out) {
+        int[] chars = _chars;
+        for (int k = 0; k < len; k++) {
+            step();
+            Arrays.fill(chars, text[k]);
+            path(chars);
+            for (int lane = 0; lane < _lanes; lane++) {
+                out[lane][k] = chars[lane];
+            }
+        }
+    }
+
+    /** Advance every lane's rotors for one keypress, by the rules of
+     *  Stepper.step. */
+    void step() {
+        _stepper.step(_posns, _lanes);
+    }
+
+    /** Replace C[LANE], for each lane, by its conversion through the
+     *  plugboard, rotors and reflector at the lane's current settings. */
+    void path(int[] c) {
+        RotorSpec[] specs = _specs;
+        int[] plugboard = _plugboard;
+        int lanes = _lanes;
+        for (int lane = 0; lane < lanes; lane++) {
+            c[lane] = plugboard[c[lane]];
+        }
+        for (int i = specs.length - 1; i > -1; i -= 1) {
+            RotorSpec spec = specs[i];
+            int[] posns = _posns[i];
+            for (int lane = 0; lane < lanes; lane++) {
+                c[lane] = spec.convertForward(c[lane], posns[lane]);
+            }
+        }
+        for (int i = 1; i < specs.length; i += 1) {
+            RotorSpec spec = specs[i];
+            int[] posns = _posns[i];
+            for (int lane = 0; lane < lanes; lane++) {
+                c[lane] = spec.convertBackward(c[lane], posns[lane]);
+            }
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            c[lane] = plugboard[c[lane]];
+        }
+    }
+
+    /** Wiring of the rotors, by slot. */
+    final RotorSpec[] _specs;
+    /** Number of lanes. */
+    final int _lanes;
+    /** Alphabet size. */
+    final int _size;
+    /** Stepping rules of my rotors. */
+    private final Stepper _stepper;
+    /** _posns[I][LANE] is the setting of slot I in lane LANE. */
+    final int[][] _posns;
+    /** The plugboard, as a table (the identity if there is none). */
+    final int[] _plugboard;
+    /** Scratch for convert: one character per lane. */
+    private final int[] _chars;
+}
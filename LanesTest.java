@@ -0,0 +1,66 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Lanes class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class LanesTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void lanesMatchMachines() {
+        Machine template = new Machine(UPPER, 5, 3, navalRotors());
+        template.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        template.setPlugboard(new Permutation("(AQ) (EP) (TZ)", UPPER));
+        int lanes = 37;
+        Lanes engine = Lanes.create(template, lanes);
+        Random random = new Random(61);
+        Machine[] machines = new Machine[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            int[] posns = new int[5];
+            for (int i = 1; i < 5; i++) {
+                posns[i] = random.nextInt(26);
+            }
+            engine.setPositions(lane, posns);
+            assertArrayEquals(posns, engine.positions(lane));
+            machines[lane] = template.copy();
+            machines[lane].setPositions(posns);
+        }
+        int[] text = KeySearch.indices(UPPER, KeySearchTest.PLAIN);
+        int[][] out = new int[lanes][text.length];
+        engine.convert(text, text.length, out);
+        for (int lane = 0; lane < lanes; lane++) {
+            for (int k = 0; k < text.length; k++) {
+                assertEquals(machines[lane].convert(text[k]), out[lane][k]);
+            }
+            assertArrayEquals(machines[lane].positions(),
+                              engine.positions(lane));
+        }
+        int[] chars = new int[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            chars[lane] = lane % 26;
+        }
+        engine.convert(chars, chars);
+        for (int lane = 0; lane < lanes; lane++) {
+            assertEquals(machines[lane].convert(lane % 26), chars[lane]);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void lanesNeedRotors() {
+        new Lanes(new Machine(UPPER, 5, 3, navalRotors()), 4);
+    }
+}
@@ -1,10 +1,12 @@
 package enigma;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.LinkedList;
+import java.util.Objects;
 
 import static enigma.EnigmaException.*;
 
@@ -16,18 +18,37 @@ class Machine {
     private int _numRotors;
     /** Number of Pawls. */
     private int _pawls;
-    /** Collection of all Rotors. */
-    private Collection<Rotor> _allRotors;
+    /** All the rotors available to me. */
+    private final RotorBank _bank;
     /**
      * Common alphabet of my rotors.
      */
     private final Alphabet _alphabet;
     /** Plugboard. */
     private Permutation _plugboard;
-    /** ArrayList containing rotor names. */
-    private ArrayList<Rotor> rotorNames = new ArrayList<>();
-    /** Hashmap mapping names of rotors to rotor objects. */
-    private HashMap<String, Rotor> bigBank = new HashMap<>();
+    /** The rotors in my slots, leftmost (the reflector) first. */
+    private final Rotor[] _rotors;
+    /** The IDs in _bank of the rotors in my slots, or -1 for an empty
+     *  slot. */
+    private final int[] _ids;
+    /** The wiring of the rotors in my slots, leftmost (the reflector)
+     *  first, or an empty array until rotors are inserted.  The wiring
+     *  itself is shared with other machines using the same rotors. */
+    private RotorSpec[] _specs = new RotorSpec[0];
+    /** Stepping rules for _specs. */
+    private Stepper _stepper;
+    /** The settings of my slots, leftmost first.  This is the only state
+     *  of my rotors; the Rotors I was built from are never moved. */
+    private int[] _posns;
+    /** Cache of whole-machine mappings, or null if disabled. */
+    private PathCache _paths;
+    /** The table of _paths for the current settings of all but the
+     *  rightmost rotor, or null if it must be looked up again. */
+    private int[] _pathTable;
+    /** Scratch vector of the settings of all but the rightmost rotor. */
+    private int[] _pathKey;
+    /** Where my work is recorded, or null. */
+    private Metrics _metrics;
 
     /**
      * A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
@@ -36,14 +57,22 @@ class Machine {
      */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorBank(allRotors));
+    }
+
+    /** As for Machine(ALPHA, NUMROTORS, PAWLS, Collection), with the
+     *  rotors of BANK, which are built only when inserted. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorBank bank) {
         if (numRotors > 1 && pawls < numRotors && pawls >= 0) {
             _alphabet = alpha;
             _numRotors = numRotors;
             _pawls = pawls;
-            _allRotors = allRotors;
-            for (Rotor toAdd : allRotors) {
-                bigBank.put(toAdd.name().toUpperCase(), toAdd);
-            }
+            _bank = bank;
+            _posns = new int[numRotors];
+            _pathKey = new int[numRotors - 1];
+            _rotors = new Rotor[numRotors];
+            _ids = new int[numRotors];
+            Arrays.fill(_ids, -1);
         } else {
             throw new EnigmaException("Specs not feasible");
         }
@@ -57,9 +86,52 @@ class Machine {
     }
 
 
-    /** Returns arraylist of rotorsinuse. */
+    /** Return a machine with my alphabet, rotors, settings and plugboard,
+     *  whose settings change independently of mine.  The rotor wiring is
+     *  shared.  Its path cache, if any, starts empty. */
+    Machine copy() {
+        Machine result = new Machine(_alphabet, _numRotors, _pawls, _bank);
+        if (_specs.length > 0) {
+            System.arraycopy(_rotors, 0, result._rotors, 0, _numRotors);
+            System.arraycopy(_ids, 0, result._ids, 0, _numRotors);
+            result._specs = _specs.clone();
+            result._stepper = _stepper.copy();
+            System.arraycopy(_posns, 0, result._posns, 0, _posns.length);
+        }
+        result.setPlugboard(_plugboard);
+        if (_paths != null) {
+            result.setPathCache(_paths.capacity());
+        }
+        result._metrics = _metrics;
+        return result;
+    }
+
+    /** Returns arraylist of rotorsinuse.  Their settings are not those
+     *  of my slots; see positions(). */
     Collection<Rotor> rotorTing() {
-        return (Collection<Rotor>) rotorNames;
+        return _specs.length == 0 ? new ArrayList<>()
+            : new ArrayList<>(Arrays.asList(_rotors));
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors available to me, building any not yet
+     *  built. */
+    Collection<Rotor> allRotors() {
+        return _bank.rotors();
+    }
+
+    /** Return the bank of rotors available to me. */
+    RotorBank bank() {
+        return _bank;
+    }
+
+    /** Return the wiring of my inserted rotors, by slot. */
+    RotorSpec[] specs() {
+        return _specs.clone();
     }
 
     /**
@@ -72,27 +144,92 @@ class Machine {
     /**
      * Set my rotor slots to the rotors named ROTORS from my set of
      * available rotors (ROTORS[0] names the reflector).
-     * Initially, all rotors are set at their 0 setting.
+     * Initially, all rotors are set at their 0 setting.  The rotors
+     * themselves are not changed, and may be shared with other machines.
      */
     void insertRotors(String[] rotors) {
-        if (bigBank.size() < rotors.length) {
+        if (_bank.size() < rotors.length) {
             throw new EnigmaException("Not enough rotors.");
         }
-        if (!bigBank.get(rotors[0]).reflecting()) {
-            throw new EnigmaException("0th rotor must be reflecting.");
+        int[] ids = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i++) {
+            ids[i] = _bank.id(rotors[i]);
+            if (ids[i] < 0) {
+                throw error("unknown rotor: %s", rotors[i]);
+            }
+        }
+        insertRotors(ids);
+    }
+
+    /** As for insertRotors(String[]), but with the rotors whose IDs in
+     *  my bank are IDS, as given by bank().id.  A rotor may fill only one
+     *  slot.  Allocates nothing once my first rotors are inserted. */
+    void insertRotors(int[] ids) {
+        if (_bank.size() < ids.length) {
+            throw new EnigmaException("Not enough rotors.");
         }
-        if (!(rotors.length == _numRotors)) {
+        if (!(ids.length == _numRotors)) {
             throw new EnigmaException("Must be equal");
         }
-        for (int i = 0; i < rotors.length; i++) {
-            if (rotorNames.contains(rotors[i])) {
-                throw new EnigmaException("Rotor name already  passed.");
-            } else {
-                rotorNames.add(i, bigBank.get(rotors[i]));
+        if (!_bank.get(ids[0]).reflecting()) {
+            throw new EnigmaException("0th rotor must be reflecting.");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            _bank.get(ids[i]).spec();
+            for (int j = 0; j < i; j++) {
+                if (ids[j] == ids[i]) {
+                    throw error("rotor %s used twice",
+                                _bank.get(ids[i]).name());
+                }
             }
         }
+        if (_specs.length == 0) {
+            _specs = new RotorSpec[_numRotors];
+        }
+        boolean same = _stepper != null;
+        for (int i = 0; i < ids.length; i++) {
+            Rotor rotor = _bank.get(ids[i]);
+            RotorSpec spec = rotor.spec();
+            same &= _specs[i] == spec;
+            _rotors[i] = rotor;
+            _ids[i] = ids[i];
+            _specs[i] = spec;
+        }
+        if (_stepper == null) {
+            _stepper = new Stepper(_specs, _pawls);
+        } else if (!same) {
+            _stepper.setRotors(_specs);
+        }
+        Arrays.fill(_posns, 0);
+        clearPaths();
     }
 
+    /** Reconfigure me with a new key: the rotors whose IDs are
+     *  ROTORORDER, as for insertRotors(int[]), at the settings POSITIONS,
+     *  by slot (the reflector's first), and the plugboard PLUGBOARD (none
+     *  if null).  My buffers and caches are reused, so switching keys
+     *  allocates nothing.  Everything is checked before anything
+     *  changes, so if the new key is rejected I keep the old one. */
+    void reconfigure(int[] rotorOrder, int[] positions,
+                     Permutation plugboard) {
+        if (positions.length != _numRotors) {
+            throw new EnigmaException("bad config.");
+        }
+        for (int posn : positions) {
+            if (posn < 0 || posn >= _alphabet.size()) {
+                throw new EnigmaException("Index out of bounds.");
+            }
+        }
+        insertRotors(rotorOrder);
+        setPositions(positions);
+        setPlugboard(plugboard);
+    }
+
+    /** Return the IDs in my bank of the rotors in my slots, by slot. */
+    int[] rotorIds() {
+        checkConfig();
+        return _ids.clone();
+    }
 
     /**
      * Set my rotors according to SETTING, which must be a string of
@@ -101,19 +238,71 @@ class Machine {
      */
     void setRotors(String setting) {
         if (setting.length() == numRotors() - 1) {
+            checkConfig();
             for (int i = 0; i < setting.length(); i++) {
-                rotorNames.get(i + 1).set(setting.charAt(i));
+                _posns[i + 1] = _specs[i + 1].alphabet()
+                    .toInt(setting.charAt(i));
             }
+            _pathTable = null;
         } else {
             throw new EnigmaException("bad configuration.");
         }
     }
 
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /**
      * Set the plugboard to PLUGBOARD.
      */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        clearPaths();
+    }
+
+    /**
+     * Cache the whole-machine mapping for up to CAPACITY settings of the
+     * rotors other than the rightmost one, discarding the least recently
+     * used when full.  A CAPACITY of 0 (the default) disables the
+     * cache.  Entries are filled in as they are first converted, so the
+     * cache pays off when the same rotor settings recur, as when the same
+     * key is tried on many messages or a message outlasts the stepping
+     * period.  The cache assumes that my rotors are only moved through me.
+     */
+    void setPathCache(int capacity) {
+        _paths = capacity == 0 ? null
+            : new PathCache(_alphabet.size(), capacity);
+        _pathTable = null;
+    }
+
+    /** Return my path cache, or null if it is disabled. */
+    PathCache pathCache() {
+        return _paths;
+    }
+
+    /** Record my work in METRICS, which must count the rotors of my
+     *  bank, or stop recording if METRICS is null.  Keypresses skipped
+     *  by advance() are not recorded. */
+    void setMetrics(Metrics metrics) {
+        if (metrics != null && metrics.bank() != _bank) {
+            throw error("metrics count the rotors of another bank");
+        }
+        _metrics = metrics;
+    }
+
+    /** Return the metrics I record into, or null. */
+    Metrics metrics() {
+        return _metrics;
+    }
+
+    /** Discard cached mappings after a change of rotors or plugboard. */
+    private void clearPaths() {
+        if (_paths != null) {
+            _paths.clear();
+        }
+        _pathTable = null;
     }
 
     /**
@@ -123,77 +312,303 @@ class Machine {
      * the machine.
      */
     int convert(int c) {
-        List<Integer> readyToMove = new LinkedList<>();
-        if (rotorNames.size() != numRotors()) {
-            throw new EnigmaException("bad config.");
+        checkConfig();
+        int[] posns = _posns;
+        Metrics metrics = _metrics;
+        if (_stepper.step(posns, metrics, _ids)) {
+            _pathTable = null;
         }
-        for (int i = numRotors() - numPawls(); i < rotorNames.size(); i++) {
-            if (i != numRotors() - numPawls()) {
-                if (rotorNames.get(i).atNotch()) {
-                    readyToMove.add(i);
-                }
-            } else if ((i == numRotors() - numPawls())
-                    && (i < rotorNames.size() - 1)
-                    && (rotorNames.get(i + 1).atNotch())) {
-                readyToMove.add(i);
-            }
+        if (metrics != null) {
+            metrics.converted(1);
         }
-        ArrayList<Rotor> moved = new ArrayList<>();
-        for (int i : readyToMove) {
-            if (!moved.contains(rotorNames.get(i))) {
-                rotorNames.get(i).advance();
-                moved.add(rotorNames.get(i));
-            }
-            if (!moved.contains(rotorNames.get(i - 1))) {
-                rotorNames.get(i - 1).advance();
-                moved.add(rotorNames.get(i - 1));
-            }
+
+        if (_paths == null) {
+            return path(c);
         }
-        if (!moved.contains(rotorNames.get(rotorNames.size() - 1))) {
-            rotorNames.get(rotorNames.size() - 1).advance();
+        if (_pathTable == null) {
+            System.arraycopy(posns, 0, _pathKey, 0, _pathKey.length);
+            _pathTable = _paths.table(_pathKey);
         }
+        int k = posns[posns.length - 1] * _alphabet.size() + c;
+        int result = _pathTable[k];
+        if (result >= 0) {
+            _paths.hit();
+        } else {
+            _paths.miss();
+            result = path(c);
+            _pathTable[k] = result;
+        }
+        return result;
+    }
 
+    /** Return the result of passing C through the plugboard, rotors and
+     *  reflector at their current settings. */
+    private int path(int c) {
         if (_plugboard != null) {
             c = _plugboard.permute(c);
         }
+        c = rotorPath(c);
+        if (_plugboard != null) {
+            c = _plugboard.permute(c);
+        }
+        return c;
+    }
 
-        for (int i = rotorNames.size() - 1; i > -1; i -= 1) {
-            c = rotorNames.get(i).convertForward(c);
+    /** Return the result of passing C through my rotors and reflector,
+     *  but not the plugboard, at their current settings. */
+    private int rotorPath(int c) {
+        RotorSpec[] specs = _specs;
+        int[] posns = _posns;
+        for (int i = specs.length - 1; i > -1; i -= 1) {
+            c = specs[i].convertForward(c, posns[i]);
         }
-        for (int i = 1; i < rotorNames.size(); i += 1) {
-            c = rotorNames.get(i).convertBackward(c);
+        for (int i = 1; i < specs.length; i += 1) {
+            c = specs[i].convertBackward(c, posns[i]);
         }
+        return c;
+    }
 
-        if (_plugboard != null) {
-            c = _plugboard.permute(c);
+    /** Advance my rotors for LEN keypresses, returning a table whose
+     *  entry K * size + C is the conversion of C by my rotors and
+     *  reflector, without the plugboard, at keypress K.  The plugboard
+     *  only permutes the input and output of these tables, so with them
+     *  a message can be converted under any plugboard without running the
+     *  rotors again. */
+    int[] paths(int len) {
+        checkConfig();
+        int size = _alphabet.size();
+        int[] result = new int[Math.multiplyExact(len, size)];
+        RotorSpec[] specs = _specs;
+        int[] posns = _posns;
+        for (int k = 0; k < len; k++) {
+            if (_stepper.step(posns, _metrics, _ids)) {
+                _pathTable = null;
+            }
+            int off = k * size;
+            for (int c = 0; c < size; c++) {
+                result[off + c] = c;
+            }
+            for (int i = specs.length - 1; i > -1; i -= 1) {
+                specs[i].convertForward(result, off, posns[i]);
+            }
+            for (int i = 1; i < specs.length; i += 1) {
+                specs[i].convertBackward(result, off, posns[i]);
+            }
         }
+        return result;
+    }
 
-        return c;
+    /** Return the settings of my rotors, by slot (the reflector's first),
+     *  after N more characters have been converted, without changing my
+     *  rotors.  Takes time independent of N for large N. */
+    int[] stateAt(long n) {
+        int[] posns = positions();
+        _stepper.advance(posns, n);
+        return posns;
+    }
 
+    /** Advance my rotors as if N characters had been converted.  Takes
+     *  time independent of N for large N. */
+    void advance(long n) {
+        checkConfig();
+        _stepper.advance(_posns, n);
+        _pathTable = null;
     }
 
+    /** Return the settings of my rotors, by slot, the reflector's
+     *  first. */
+    int[] positions() {
+        checkConfig();
+        return _posns.clone();
+    }
 
+    /** Set my rotors to the settings POSNS, by slot, the reflector's
+     *  first. */
+    void setPositions(int[] posns) {
+        checkConfig();
+        if (posns.length != numRotors()) {
+            throw new EnigmaException("bad config.");
+        }
+        for (int i = 0; i < posns.length; i++) {
+            if (posns[i] < 0 || posns[i] >= _specs[i].size()) {
+                throw new EnigmaException("Index out of bounds.");
+            }
+        }
+        for (int i = 0; i < posns.length - 1; i++) {
+            if (_posns[i] != posns[i]) {
+                _pathTable = null;
+            }
+        }
+        System.arraycopy(posns, 0, _posns, 0, posns.length);
+    }
 
+    /** Check that all my slots are filled. */
+    private void checkConfig() {
+        if (_specs.length != numRotors()) {
+            throw new EnigmaException("bad config.");
+        }
+    }
 
     /**
      * Returns the encoding/decoding of MSG, updating the state of
      * the rotors accordingly.
      */
     String convert(String msg) {
-        String conv = "";
-        msg = msg.toUpperCase();
-        for (int i = 0; i < msg.length(); i++) {
-            char ch = msg.charAt(i);
-            if (ch == ' ') {
-                conv += " ";
-            } else {
-                ch = (char) _alphabet.toChar(convert(_alphabet.toInt(ch)));
-                conv += ch;
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /**
+     * Convert the LEN characters of IN starting at OFF, writing the
+     * results to OUT starting at OUTOFF and updating the state of the
+     * rotors accordingly.  Characters are upper-cased before conversion
+     * and spaces are copied through without advancing the rotors.  IN and
+     * OUT may be the same array.  Returns the number of characters
+     * written, which is LEN.
+     */
+    int convert(char[] in, int off, int len, char[] out, int outOff) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        Alphabet alpha = _alphabet;
+        for (int i = 0; i < len; i++) {
+            char ch = in[off + i];
+            if (ch != ' ') {
+                if (ch >= 'a' && ch <= 'z') {
+                    ch -= 'a' - 'A';
+                } else if (ch >= ASCII_LIMIT) {
+                    ch = Character.toUpperCase(ch);
+                }
+                ch = alpha.toChar(convert(alpha.toInt(ch)));
             }
+            out[outOff + i] = ch;
         }
-        return conv;
+        return len;
     }
-}
 
+    /**
+     * As for convert(char[], int, int, char[], int), but converting the
+     * LEN ASCII characters encoded in IN starting at OFF into OUT starting
+     * at OUTOFF.  My alphabet must consist of ASCII characters.
+     */
+    int convert(byte[] in, int off, int len, byte[] out, int outOff) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        int[] index = byteIndex();
+        byte[] chars = _byteChars;
+        for (int i = 0; i < len; i++) {
+            byte b = in[off + i];
+            if (b != ' ') {
+                int k = index[b & BYTE_MASK];
+                if (k < 0) {
+                    throw new EnigmaException("charr not found.");
+                }
+                b = chars[convert(k)];
+            }
+            out[outOff + i] = b;
+        }
+        return len;
+    }
 
+    /**
+     * Convert the remaining ASCII characters of IN into OUT, advancing the
+     * positions of both buffers.  OUT must have at least IN.remaining()
+     * bytes remaining.  Returns the number of bytes converted.
+     */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            convert(in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position());
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+            return len;
+        }
+        int[] index = byteIndex();
+        byte[] chars = _byteChars;
+        for (int i = 0; i < len; i++) {
+            byte b = in.get();
+            if (b != ' ') {
+                int k = index[b & BYTE_MASK];
+                if (k < 0) {
+                    throw new EnigmaException("charr not found.");
+                }
+                b = chars[convert(k)];
+            }
+            out.put(b);
+        }
+        return len;
+    }
 
+    /**
+     * As for convert(IN, OUT), except that bytes that are not characters
+     * of my alphabet, even when upper-cased, are copied to OUT unchanged,
+     * or dropped if STRIP, rather than being errors.  Returns the number
+     * of bytes written to OUT.
+     */
+    int convert(ByteBuffer in, ByteBuffer out, boolean strip) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        int[] index = byteIndex();
+        byte[] chars = _byteChars;
+        int inPos = in.position(), outPos = out.position();
+        int start = outPos;
+        for (int i = 0; i < len; i++) {
+            byte b = in.get(inPos + i);
+            int k = index[b & BYTE_MASK];
+            if (k >= 0) {
+                out.put(outPos, chars[convert(k)]);
+                outPos += 1;
+            } else if (!strip) {
+                out.put(outPos, b);
+                outPos += 1;
+            }
+        }
+        in.position(inPos + len);
+        out.position(outPos);
+        return outPos - start;
+    }
+
+    /** Return a table giving, for each byte value B, the index in my
+     *  alphabet of the upper-cased ASCII character B, or -1 if there is
+     *  none.  Built on first use, along with _byteChars. */
+    private int[] byteIndex() {
+        if (_byteIndex == null) {
+            byte[] chars = new byte[_alphabet.size()];
+            for (int i = 0; i < chars.length; i++) {
+                char ch = _alphabet.toChar(i);
+                if (ch >= ASCII_LIMIT) {
+                    throw error("alphabet character '%c' is not ASCII", ch);
+                }
+                chars[i] = (byte) ch;
+            }
+            int[] index = new int[BYTE_MASK + 1];
+            for (int b = 0; b <= BYTE_MASK; b++) {
+                char ch = (char) b;
+                if (ch >= 'a' && ch <= 'z') {
+                    ch -= 'a' - 'A';
+                }
+                index[b] = b < ASCII_LIMIT ? _alphabet.indexOf(ch) : -1;
+            }
+            _byteChars = chars;
+            _byteIndex = index;
+        }
+        return _byteIndex;
+    }
+
+    /** First character code beyond the ASCII range. */
+    private static final int ASCII_LIMIT = 128;
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Alphabet indices of upper-cased ASCII bytes, or null if not yet
+     *  built. */
+    private int[] _byteIndex;
+    /** The characters of my alphabet as ASCII bytes. */
+    private byte[] _byteChars;
+}
@@ -0,0 +1,405 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import static enigma.TestUtils.*;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/** The suite of all JUnit tests for the Machine class.  The expected
+ *  rotor positions and messages were recorded from the original
+ *  list-based stepping code, so they pin its exact behavior.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine with NUMROTORS slots and PAWLS pawls holding the
+     *  naval rotors named by ROTORS, set to SETTING. */
+    private Machine naval(int numRotors, int pawls, String rotors,
+                          String setting) {
+        Machine mach = new Machine(UPPER, numRotors, pawls, navalRotors());
+        mach.insertRotors(rotors.split(" "));
+        mach.setRotors(setting);
+        return mach;
+    }
+
+    /** Return the settings of the non-reflector rotors of MACH. */
+    private static String positions(Machine mach) {
+        StringBuilder result = new StringBuilder();
+        int[] posns = mach.positions();
+        for (int i = 1; i < posns.length; i++) {
+            result.append(UPPER.toChar(posns[i]));
+        }
+        return result.toString();
+    }
+
+    /** Press a key of MACH once for each entry of EXPECTED, checking that
+     *  the rotors reach the space-separated positions in EXPECTED. */
+    private void checkSteps(Machine mach, String expected) {
+        for (String posn : expected.split(" ")) {
+            mach.convert(0);
+            assertEquals(posn, positions(mach));
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void doubleStep() {
+        checkSteps(naval(5, 3, "B BETA I II III", "AADU"),
+                   "AADV AAEW ABFX ABFY ABFZ ABFA");
+    }
+
+    @Test
+    public void metricsCountSteps() throws Exception {
+        Machine mach = naval(5, 3, "B BETA I II III", "AADU");
+        Metrics metrics = new Metrics(mach.bank());
+        mach.setMetrics(metrics);
+        checkSteps(mach, "AADV AAEW ABFX ABFY ABFZ ABFA");
+        assertEquals(6, metrics.chars());
+        assertEquals(0, metrics.advances("Beta"));
+        assertEquals(1, metrics.advances("I"));
+        assertEquals(2, metrics.advances("II"));
+        assertEquals(6, metrics.advances("III"));
+        assertEquals(2, metrics.notchHits());
+        assertEquals(1, metrics.doubleSteps());
+
+        metrics.register();
+        assertEquals(6L, ManagementFactory.getPlatformMBeanServer()
+                     .getAttribute(new ObjectName(Metrics.MBEAN_NAME),
+                                   "chars"));
+        assertTrue(metrics.toString().contains(" doubleSteps=1 "));
+        assertTrue(metrics.toString().contains(" advances.II=2 "));
+        assertFalse(metrics.toString().contains("advances.BETA"));
+
+        mach.insertRotors(new String[] {"B", "BETA", "III", "II", "I"});
+        mach.setRotors("AAAA");
+        mach.convert(0);
+        assertEquals(6, metrics.advances("III"));
+        assertEquals(2, metrics.advances("I"));
+    }
+
+    @Test
+    public void noCarryWithoutNotch() {
+        checkSteps(naval(5, 3, "B BETA III II I", "AADU"),
+                   "AADV AADW AADX AADY AADZ AADA");
+    }
+
+    @Test
+    public void multipleNotches() {
+        checkSteps(naval(5, 3, "B GAMMA VI VII VIII", "AKLY"),
+                   "AKLZ AKMA ALNB ALNC ALND ALNE ALNF ALNG ALNH ALNI "
+                   + "ALNJ ALNK ALNL ALNM ALON ALOO ALOP ALOQ ALOR ALOS");
+    }
+
+    @Test
+    public void fourPawls() {
+        checkSteps(naval(5, 4, "B VI VII VIII I", "ZLYP"),
+                   "ZLYQ ZLZR ZMAS ANAT ANAU ANAV ANAW ANAX ANAY ANAZ "
+                   + "ANAA ANAB");
+    }
+
+    @Test
+    public void leftmostPawlDoesNotDoubleStep() {
+        checkSteps(naval(4, 2, "B BETA II III", "DEU"), "DEV DFW DFX DFY");
+    }
+
+    @Test
+    public void carryChain() {
+        checkSteps(naval(6, 5, "C I II III IV V", "QDUIZ"),
+                   "QDUJA QDVKB QEWKC RFWKD RFWKE RFWKF RFWKG RFWKH RFWKI "
+                   + "RFWKJ RFWKK RFWKL RFWKM RFWKN RFWKO RFWKP RFWKQ "
+                   + "RFWKR RFWKS RFWKT RFWKU RFWKV RFWKW RFWKX RFWKY "
+                   + "RFWKZ RFWLA RFWLB RFWLC RFWLD");
+    }
+
+    @Test
+    public void adjacentNotches() {
+        Alphabet alpha = new Alphabet("ABCDE");
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation("(AB) (CD) (E)", alpha)));
+        rotors.add(new MovingRotor("X", new Permutation("(ABCDE)", alpha),
+                                   "CD"));
+        rotors.add(new MovingRotor("Y", new Permutation("(AC) (BDE)", alpha),
+                                   "AB"));
+        rotors.add(new MovingRotor("Z", new Permutation("(AEDCB)", alpha),
+                                   "E"));
+        Machine mach = new Machine(alpha, 4, 3, rotors);
+        mach.insertRotors(new String[] {"R", "Z", "X", "Y"});
+        mach.setRotors("ABE");
+        checkSteps(mach, "ABA ACB BDC CED CEE CEA CAB CBC CBD CBE CBA CCB "
+                   + "DDC EED EEE EEA EAB EBC EBD EBE EBA ECB ADC BED BEE");
+        mach.setRotors("ABE");
+        assertEquals("BBCADCECEB BBCAD BCAECEEEBD",
+                     mach.convert("ABCDEEDCBA ABCDE aabbccddee"));
+    }
+
+    @Test
+    public void convertMessage() {
+        Machine mach = naval(5, 3, "B BETA III IV I", "AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     mach.convert("FROMhisshoulderHiawatha"));
+        assertEquals("BHCN SCX NUOAAT ZX SRCFYDGU",
+                     mach.convert("Took the camera of rosewood"));
+    }
+
+    @Test
+    public void bulkConversions() {
+        String msg = "From his shoulder Hiawatha took the camera of rosewood";
+        String expected = naval(5, 3, "B BETA III IV I", "AXLE").convert(msg);
+
+        char[] chars = ("xx" + msg).toCharArray();
+        char[] out = new char[msg.length() + 1];
+        Machine mach = naval(5, 3, "B BETA III IV I", "AXLE");
+        assertEquals(msg.length(),
+                     mach.convert(chars, 2, msg.length(), out, 1));
+        assertEquals(expected, new String(out, 1, msg.length()));
+
+        byte[] bytes = msg.getBytes(US_ASCII);
+        mach = naval(5, 3, "B BETA III IV I", "AXLE");
+        mach.convert(bytes, 0, bytes.length, bytes, 0);
+        assertEquals(expected, new String(bytes,
+                US_ASCII));
+
+        ByteBuffer in = ByteBuffer.allocateDirect(msg.length());
+        in.put(msg.getBytes(US_ASCII)).flip();
+        ByteBuffer result = ByteBuffer.allocate(msg.length());
+        naval(5, 3, "B BETA III IV I", "AXLE").convert(in, result);
+        assertEquals(0, in.remaining());
+        assertEquals(expected, new String(result.array(),
+                US_ASCII));
+    }
+
+    @Test
+    public void machinesShareRotors() {
+        String msg = "From his shoulder Hiawatha took the camera of rosewood";
+        String expected = naval(5, 3, "B BETA III IV I", "AXLE").convert(msg);
+        List<Rotor> rotors = navalRotors();
+        Machine m1 = new Machine(UPPER, 5, 3, rotors);
+        Machine m2 = new Machine(UPPER, 5, 3, rotors);
+        m1.insertRotors("B BETA III IV I".split(" "));
+        m2.insertRotors("B BETA III IV I".split(" "));
+        m1.setRotors("AXLE");
+        m2.setRotors("AXLE");
+        StringBuilder out1 = new StringBuilder(),
+            out2 = new StringBuilder();
+        for (String word : msg.split(" ")) {
+            out1.append(m1.convert(word)).append(' ');
+            out2.append(m2.convert(word)).append(' ');
+        }
+        assertEquals(expected + " ", out1.toString());
+        assertEquals(expected + " ", out2.toString());
+        for (Rotor rotor : rotors) {
+            assertEquals(0, rotor.setting());
+        }
+
+        Machine copy = m1.copy();
+        assertArrayEquals(m1.positions(), copy.positions());
+        m1.convert(0);
+        assertFalse(Arrays.equals(m1.positions(),
+                                  copy.positions()));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void bulkRejectsForeignChars() {
+        byte[] bytes = {'A', 'B', '-'};
+        naval(5, 3, "B BETA III IV I", "AXLE").convert(bytes, 0, 3, bytes, 0);
+    }
+
+    @Test
+    public void pathCacheMatchesRotors() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            msg.append((char) ('A' + (i * 7 + i / 26) % 26));
+        }
+        Machine plain = naval(5, 3, "B BETA III IV I", "AXLE");
+        assertNull(plain.pathCache());
+        Machine cached = naval(5, 3, "B BETA III IV I", "AXLE");
+        cached.setPathCache(1000);
+        String expected = plain.convert(msg.toString());
+        assertEquals(expected, cached.convert(msg.toString()));
+        cached.setRotors("AXLE");
+        assertEquals(expected, cached.convert(msg.toString()));
+
+        PathCache paths = cached.pathCache();
+        assertEquals(10000, paths.hits() + paths.misses());
+        assertTrue(paths.hits() >= 5000);
+        assertEquals(0, paths.evictions());
+
+        cached.setPathCache(2);
+        cached.setRotors("AXLE");
+        cached.convert(msg.toString());
+        assertTrue(cached.pathCache().evictions() > 0);
+        assertEquals(2, cached.pathCache().tables());
+
+        cached.setRotors("AXLE");
+        cached.setPlugboard(new Permutation("(AB)", UPPER));
+        plain.setRotors("AXLE");
+        plain.setPlugboard(new Permutation("(AB)", UPPER));
+        assertEquals(plain.convert(msg.toString()),
+                     cached.convert(msg.toString()));
+    }
+
+    /** Check that advancing MACH by each of COUNTS keypresses at once
+     *  agrees with pressing keys one at a time. */
+    private void checkAdvance(Machine mach, long... counts) {
+        int[] start = mach.positions();
+        for (long n : counts) {
+            mach.setPositions(start);
+            int[] jumped = mach.stateAt(n);
+            assertArrayEquals(start, mach.positions());
+            for (long k = 0; k < n; k += 1) {
+                mach.convert(0);
+            }
+            assertArrayEquals("after " + n, mach.positions(), jumped);
+            mach.setPositions(start);
+            mach.advance(n);
+            assertArrayEquals("advance " + n, jumped, mach.positions());
+        }
+        mach.setPositions(start);
+        long big = 1234567890123L;
+        int[] direct = mach.stateAt(big + 98765);
+        mach.advance(big);
+        assertArrayEquals(direct, mach.stateAt(98765));
+    }
+
+    @Test
+    public void advanceMatchesStepping() {
+        checkAdvance(naval(5, 3, "B BETA I II III", "AADU"),
+                     0, 1, 2, 3, 25, 26, 677, 20000, 200000);
+        checkAdvance(naval(5, 3, "B GAMMA VI VII VIII", "AKLY"),
+                     0, 1, 30, 200000);
+        checkAdvance(naval(6, 5, "C I II III IV V", "QDUIZ"),
+                     0, 3, 500000);
+        checkAdvance(naval(4, 2, "B BETA II III", "DEU"), 1, 150000);
+        checkAdvance(naval(5, 1, "B BETA GAMMA II III", "DEUQ"), 1, 150000);
+    }
+
+    @Test
+    public void advanceWithAdjacentNotches() {
+        Alphabet alpha = new Alphabet("ABCDE");
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation("(AB) (CD) (E)", alpha)));
+        rotors.add(new MovingRotor("X", new Permutation("(ABCDE)", alpha),
+                                   "CD"));
+        rotors.add(new MovingRotor("Y", new Permutation("(AC) (BDE)", alpha),
+                                   "AB"));
+        rotors.add(new MovingRotor("Z", new Permutation("(AEDCB)", alpha),
+                                   "E"));
+        Machine mach = new Machine(alpha, 4, 3, rotors);
+        mach.insertRotors(new String[] {"R", "Z", "X", "Y"});
+        mach.setRotors("ABE");
+        checkAdvance(mach, 0, 1, 7, 24, 25, 26, 100000);
+    }
+
+    @Test
+    public void advanceCopiesFromManyStarts() {
+        Machine mach = naval(5, 3, "B BETA I II III", "AADU");
+        mach.advance(1L << 40);
+        for (String setting : new String[] {"AADU", "ADEV", "QEVZ", "ZZZZ"}) {
+            Machine copy = mach.copy();
+            copy.setRotors(setting);
+            checkAdvance(copy, 1, 5000, 200000);
+        }
+        mach.insertRotors(new String[] {"B", "GAMMA", "VI", "VII", "VIII"});
+        mach.setRotors("AKLY");
+        checkAdvance(mach.copy(), 1, 200000);
+    }
+
+    @Test
+    public void reconfigureMatchesNewMachine() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        RotorBank bank = mach.bank();
+        String[][] orders = {{"B", "BETA", "III", "IV", "I"},
+                             {"C", "GAMMA", "I", "II", "V"},
+                             {"B", "BETA", "III", "IV", "I"}};
+        String[] plugs = {"(AQ) (EP)", null, "(TZ)"};
+        for (int t = 0; t < orders.length; t++) {
+            int[] ids = new int[5];
+            for (int i = 0; i < 5; i++) {
+                ids[i] = bank.id(orders[t][i]);
+            }
+            int[] posns = {0, t, 2 * t, 25, 3};
+            Permutation plug =
+                plugs[t] == null ? null : new Permutation(plugs[t], UPPER);
+            mach.reconfigure(ids, posns, plug);
+            assertArrayEquals(ids, mach.rotorIds());
+            Machine fresh = new Machine(UPPER, 5, 3, navalRotors());
+            fresh.insertRotors(orders[t]);
+            fresh.setPositions(posns);
+            fresh.setPlugboard(plug);
+            String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+            assertEquals(fresh.convert(msg), mach.convert(msg));
+        }
+    }
+
+    @Test
+    public void reconfigureAllocatesNothing() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        RotorBank bank = mach.bank();
+        int[][] orders = new int[2][];
+        orders[0] = new int[] {bank.id("B"), bank.id("BETA"),
+                               bank.id("III"), bank.id("IV"), bank.id("I")};
+        orders[1] = new int[] {bank.id("C"), bank.id("GAMMA"),
+                               bank.id("I"), bank.id("II"), bank.id("V")};
+        int[] posns = {0, 1, 2, 3, 4};
+        Permutation plug = new Permutation("(AQ) (EP)", UPPER);
+        for (int r = 0; r < 1000; r++) {
+            mach.reconfigure(orders[r & 1], posns, plug);
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int r = 0; r < 1000; r++) {
+            mach.reconfigure(orders[r & 1], posns, plug);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue("allocated " + allocated, allocated < 1000);
+    }
+
+    @Test
+    public void failedReconfigureKeepsKey() {
+        Machine mach = naval(5, 3, "B BETA III IV I", "AXLE");
+        RotorBank bank = mach.bank();
+        int[] ids = mach.rotorIds();
+        int[] posns = mach.positions();
+        int[] order = {bank.id("C"), bank.id("GAMMA"),
+                       bank.id("I"), bank.id("II"), bank.id("V")};
+        int[][] bad = {{0, 1, 2, 3}, {0, 1, 2, 3, 26}, {0, -1, 2, 3, 4}};
+        for (int[] positions : bad) {
+            try {
+                mach.reconfigure(order, positions, null);
+                fail("bad positions accepted");
+            } catch (EnigmaException excp) {
+                assertArrayEquals(ids, mach.rotorIds());
+                assertArrayEquals(posns, mach.positions());
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void rejectsDuplicateRotors() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "III", "I"});
+    }
+}
@@ -1,12 +1,22 @@
 package enigma;
 
-import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.function.Function;
 
 import static enigma.EnigmaException.*;
 
@@ -14,29 +24,20 @@ import static enigma.EnigmaException.*;
  *  @author Mohammed Abu-Sharkh
  */
 public final class Main {
-    /** List of rotors. */
-    private String[] rotors;
-    /** Split up list of settings. */
-    private String[] splitSettings;
-    /** Initialized empty string for holding cycles. */
-    private String cycles;
-    /** Rotor name. */
-    private String nombre;
-    /** Current permutation. */
-    private String currentP = "";
-    /** Whole line of permutations. */
-    private String wholeLine;
-    /** The notch currently in use. */
-    private String notchInUse;
     /** # of Rotors. */
     private int countRotors;
     /** # of Pawls. */
     private int countPawls;
-    /** Rotor Array List. */
-    private ArrayList<Rotor> rotorList = new ArrayList<>();
+    /** The rotors of the configuration. */
+    private RotorBank _bank;
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, where 1 <= ARGS.length <= 3 after optional
+     *  leading options.  "-j THREADS" selects batch mode: each settings
+     *  line and its messages are converted as an independent session,
+     *  with THREADS sessions converted at once.  "-m" collects metrics,
+     *  publishes them as a JMX MBean while running, and prints a summary
+     *  to the standard error at the end.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
@@ -56,38 +57,102 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        while (args.length > 0) {
+            if (args.length >= 2 && args[0].equals("-j")) {
+                try {
+                    _threads = Integer.parseInt(args[1]);
+                } catch (NumberFormatException excp) {
+                    throw error("bad thread count: %s", args[1]);
+                }
+                if (_threads <= 0) {
+                    throw error("bad thread count: %s", args[1]);
+                }
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-m")) {
+                _metricsOn = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else {
+                break;
+            }
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
+        if (!Files.isReadable(Paths.get(_configName))) {
+            throw error("could not open %s", _configName);
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _inChannel = getChannel(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _inChannel = Channels.newChannel(System.in);
         }
 
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            _outStream = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _outStream = System.out;
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** A Main that only reads its configuration from the file named
+     *  CONFIG. */
+    private Main(String config) {
+        _configName = config;
+    }
+
+    /** Return a machine configured from the configuration file named
+     *  CONFIG and set up according to SETTINGS, a settings line with or
+     *  without its leading "* ". */
+    static Machine configure(String config, String settings) {
+        settings = settings.trim().toUpperCase();
+        if (settings.startsWith("*")) {
+            settings = settings.substring(1).trim();
+        }
+        return loadConfig(config).apply(settings);
+    }
+
+    /** Return a function giving a new machine configured from the
+     *  configuration file named CONFIG, which is read only once, and set
+     *  up according to a settings line without its leading "* ".  The
+     *  function may be used by several threads at once. */
+    static Function<String, Machine> loadConfig(String config) {
+        Main main = new Main(config);
+        main.readConfig();
+        return main::newMachine;
+    }
+
+    /** Return a machine with the alphabet, slots, pawls and rotors of the
+     *  configuration file named CONFIG, with no rotors inserted. */
+    static Machine readMachine(String config) {
+        return new Main(config).readConfig();
+    }
+
+    /** Return a channel reading the file named NAME. */
+    private ReadableByteChannel getChannel(String name) {
         try {
-            return new Scanner(new File(name));
+            return FileChannel.open(Paths.get(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a Reader that decodes the bytes of CHANNEL in chunks of
+     *  MessageStream.BUFFER_SIZE bytes. */
+    private static Reader getReader(ReadableByteChannel channel) {
+        return Channels.newReader(channel,
+                Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE),
+                MessageStream.BUFFER_SIZE);
+    }
+
+    /** Return a stream writing to the file named NAME. */
+    private OutputStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new FileOutputStream(name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -97,166 +162,147 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine enig = readConfig();
-        String x = _input.nextLine().toUpperCase();
-        setUp(enig, x.substring(2));
-        while (_input.hasNextLine()) {
-            String currentLine = _input.nextLine().toUpperCase();
-            if (currentLine.startsWith("*")) {
-                enig = new Machine(_alphabet, countRotors,
-                        countPawls, rotorList);
-                setUp(enig, currentLine.substring(2));
+        readConfig();
+        ReadableByteChannel in = _inChannel;
+        OutputStream out = _outStream;
+        if (_metricsOn) {
+            _metrics = new Metrics(_bank);
+            _metrics.register();
+            in = _metrics.input(in);
+            out = _metrics.output(out);
+        }
+        _input = getReader(in);
+        _output = new OutputStreamWriter(out);
+        try {
+            if (_threads > 0) {
+                new BatchProcessor(_input, _output, this::newMachine,
+                                   _threads).process();
             } else {
-                printMessageLine(enig.convert(currentLine));
+                new MessageStream(_input, _output, this::reuseMachine)
+                    .process();
+            }
+            _output.flush();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } finally {
+            if (_metrics != null) {
+                System.err.println(_metrics);
             }
         }
     }
 
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
-        try {
-            String emptySpace = " "; countRotors = 0; countPawls = 0;
-            String u = _config.next().toString();
-            boolean isRotors = _config.hasNextInt();
-            boolean isPawls = _config.hasNextInt();
-            if (!_config.hasNext()) {
-                throw new EnigmaException("space required.");
-            }
-            _alphabet = new Alphabet(u);
-            if (!isRotors) {
-                throw new EnigmaException("not accessing num rotors.");
-            } else {
-                countRotors = _config.nextInt();
-            }
-            if (!isPawls) {
-                throw new EnigmaException("not accessing num pawls");
-            } else {
-                countPawls = _config.nextInt();
-            }
-            if (countPawls > countRotors) {
-                throw new EnigmaException("must hav more rotors than pawls.");
-            }
+    /** Return a new machine set up according to SETTINGS.  Machines
+     *  share the rotors of _bank, so they may run concurrently. */
+    private Machine newMachine(String settings) {
+        Machine enig = new Machine(_alphabet, countRotors, countPawls,
+                                   _bank);
+        enig.setMetrics(_metrics);
+        setUp(enig, settings);
+        return enig;
+    }
 
-            nombre = _config.next().toUpperCase();
-            while (_config.hasNext()) {
-                notchInUse = _config.next(); currentP = _config.next();
-                wholeLine = "";
-                while (_config.hasNext() && currentP.contains("(")) {
-                    if (!currentP.contains("(")) {
-                        throw new EnigmaException("config format wrong.");
-                    }
-                    wholeLine = wholeLine + currentP + emptySpace;
-                    currentP = _config.next();
-                }
-                if (!_config.hasNext()) {
-                    wholeLine = wholeLine + currentP + emptySpace;
-                }
-                wholeLine = wholeLine.substring(0, wholeLine.length() - 1);
-                if (wholeLine.contains(")(")) {
-                    wholeLine = wholeLine.replace(")(", ") (");
-                }
-                if (wholeLine.charAt(wholeLine.length() - 1) != ')') {
-                    throw new EnigmaException("Missing parentheses.");
-                }
-                rotorList.add(readRotor());
-                nombre = currentP.toUpperCase();
-            }
-            return new Machine(_alphabet, countRotors, countPawls, rotorList);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+    /** Return my one machine, reconfigured according to SETTINGS.  When
+     *  sessions are converted one at a time, each settings line only
+     *  rekeys this machine, without building a new one. */
+    private Machine reuseMachine(String settings) {
+        if (_machine == null) {
+            _machine = new Machine(_alphabet, countRotors, countPawls,
+                                   _bank);
+            _machine.setMetrics(_metrics);
         }
+        setUp(_machine, settings);
+        return _machine;
     }
-    /** Pulls out rotor specs based on config file.
-     * @return rotor*/
-    private Rotor readRotor() {
-        Rotor rotor = null;
-        try {
-            char chr = notchInUse.charAt(0);
-            if (chr == 'N') {
-                rotor = (new FixedRotor(nombre,
-                        new Permutation(wholeLine, _alphabet)));
-            } else if (chr == 'M') {
-                rotor = (new MovingRotor(nombre,
-                        new Permutation(wholeLine, _alphabet),
-                        notchInUse.substring(1)));
-            } else if (chr == 'R') {
-                rotor = (new Reflector(nombre,
-                        new Permutation(wholeLine, _alphabet)));
-            }
-        } catch (NoSuchElementException excp) {
-            throw error("rotor description won't work");
+
+    /** Return an Enigma machine configured from the configuration file
+     *  _configName, or from its ConfigImage if that is current, with no
+     *  rotors inserted. */
+    private Machine readConfig() {
+        Machine template = ConfigImage.load(Paths.get(_configName));
+        if (template == null) {
+            template = ConfigParser.read(_configName);
         }
-        return rotor;
+        _alphabet = template.alphabet();
+        countRotors = template.numRotors();
+        countPawls = template.numPawls();
+        _bank = template.bank();
+        return template;
     }
 
-
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
+     *  which must have the format specified in the assignment.  With the
+     *  byte alphabet, the settings and plugboard are in hexadecimal. */
     private void setUp(Machine M, String settings) {
-        splitSettings = settings.split(" ");
-        rotors = new String[M.numRotors()];
+        String[] splitSettings = settings.split(" ");
+        int n = M.numRotors();
 
-        if (rotors.length == 0) {
+        if (n == 0) {
             throw new EnigmaException("No rotors detected.");
         }
-        if (splitSettings.length < M.numRotors() + 1) {
+        if (splitSettings.length < n + 1) {
             throw new EnigmaException("Not enough args.");
         }
-        for (int i = 0; i < M.numRotors(); i++) {
-            rotors[i] = splitSettings[i];
-        }
-        for (int i = 0; i < rotors.length - 1; i++) {
-            if (rotors[i] == rotors[i + 1]) {
-                throw new EnigmaException("Duplicate rotor.");
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = _bank.id(splitSettings[i]);
+            if (ids[i] < 0) {
+                throw error("unknown rotor: %s", splitSettings[i]);
             }
         }
 
+        boolean bytes = ByteMachine.isBytes(_alphabet);
+        Permutation plugboard = null;
         if (settings.contains("(")) {
             String plug = settings.substring(settings.indexOf("("));
-            Permutation newPerm = new Permutation(plug.substring(0,
-                    plug.length() - 1),
-                    _alphabet);
-            M.setPlugboard(newPerm);
+            plugboard = bytes
+                ? ByteMachine.permutation(plug.trim())
+                : new Permutation(plug.trim(), _alphabet, true);
         }
 
-        M.insertRotors(rotors);
-        M.setRotors(splitSettings[rotors.length]);
-
-    }
-
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String messageLine = msg.replaceAll(" ", "");
-        if (messageLine.length() == 0) {
-            _output.println();
-        } else {
-            while (messageLine.length() > 0) {
-                if (messageLine.length() <= 5) {
-                    _output.println(messageLine);
-                    messageLine = "";
-                } else {
-                    _output.print(messageLine.substring(0, 5) + " ");
-                    messageLine = messageLine.substring(5);
-                }
-            }
+        String setting = splitSettings[n];
+        if (bytes) {
+            setting = ByteMachine.decode(setting);
         }
+        if (setting.length() != n - 1) {
+            throw new EnigmaException("bad configuration.");
+        }
+        int[] posns = new int[n];
+        for (int i = 1; i < n; i++) {
+            posns[i] = _alphabet.toInt(setting.charAt(i - 1));
+        }
+        M.reconfigure(ids, posns, plugboard);
     }
 
+    /** Number of threads converting sessions in batch mode, or 0 when
+     *  not in batch mode. */
+    private int _threads;
 
+    /** The machine reused by reuseMachine, or null. */
+    private Machine _machine;
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** True iff metrics were requested. */
+    private boolean _metricsOn;
+
+    /** Metrics of this run, or null. */
+    private Metrics _metrics;
+
+    /** Source of the bytes of input messages. */
+    private ReadableByteChannel _inChannel;
+
+    /** Destination of the bytes of processed messages. */
+    private OutputStream _outStream;
+
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Name of the configuration file. */
+    private String _configName;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private Writer _output;
 }
 
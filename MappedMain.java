@@ -0,0 +1,119 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+import static enigma.EnigmaException.*;
+
+/** Enigma simulator for very large files.  Memory-maps its input and
+ *  output files and runs a single machine over the input in windows,
+ *  writing ciphertext directly into the mapped output.  Unlike Main,
+ *  the input is raw text: it has no settings lines and is not grouped.
+ *  @author Mohammed Abu-Sharkh
+ */
+public final class MappedMain {
+
+    /** Size in bytes of each mapped window. */
+    static final int WINDOW = 1 << 26;
+
+    /** Encrypt or decrypt a file, as specified by ARGS, where
+     *  4 <= ARGS.length <= 5.  ARGS[0] is the name of a configuration
+     *  file, ARGS[1] a settings line, ARGS[2] the input file and ARGS[3]
+     *  the output file.  ARGS[4], if present, is "pass" (the default) to
+     *  copy bytes outside the alphabet to the output unchanged, or "strip"
+     *  to drop them.  The alphabet must be ASCII, or the byte alphabet
+     *  of ByteMachine, with which every byte is converted.  Reports
+     *  throughput and peak memory on the standard error.  Exits normally
+     *  if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4 || args.length > 5) {
+                throw error("usage: java enigma.MappedMain CONFIG SETTINGS "
+                            + "INPUT OUTPUT [pass|strip]");
+            }
+            boolean strip = false;
+            if (args.length == 5) {
+                if (args[4].equals("strip")) {
+                    strip = true;
+                } else if (!args[4].equals("pass")) {
+                    throw error("unknown policy %s", args[4]);
+                }
+            }
+            Machine machine = Main.configure(args[0], args[1]);
+            long start = System.nanoTime();
+            long bytes = convert(machine, Paths.get(args[2]),
+                                 Paths.get(args[3]), strip);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.err.printf("bytes=%d seconds=%.3f MBps=%.1f "
+                              + "peakRssKB=%d%n", bytes, secs,
+                              bytes / 1e6 / Math.max(secs, 1e-9),
+                              peakRss());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Convert the contents of the file INPUT with MACHINE into the file
+     *  OUTPUT, dropping bytes outside the alphabet if STRIP.  If MACHINE
+     *  has the byte alphabet, it is run as a ByteMachine.  Returns the
+     *  number of input bytes. */
+    static long convert(Machine machine, Path input, Path output,
+                        boolean strip) {
+        return convert(machine, input, output, strip, WINDOW);
+    }
+
+    /** As for convert(MACHINE, INPUT, OUTPUT, STRIP), mapping windows of
+     *  WINDOW bytes. */
+    static long convert(Machine machine, Path input, Path output,
+                        boolean strip, int window) {
+        if (window <= 0) {
+            throw error("bad window size %d", window);
+        }
+        ByteMachine bytes = ByteMachine.isBytes(machine.alphabet())
+            ? new ByteMachine(machine) : null;
+        try (FileChannel in = FileChannel.open(input, READ);
+             FileChannel out = FileChannel.open(output, READ, WRITE,
+                                                CREATE, TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long written = 0;
+            for (long pos = 0; pos < size; pos += window) {
+                int len = (int) Math.min(window, size - pos);
+                MappedByteBuffer src = in.map(READ_ONLY, pos, len);
+                MappedByteBuffer dst = out.map(READ_WRITE, written, len);
+                written += bytes != null ? bytes.convert(src, dst)
+                    : machine.convert(src, dst, strip);
+            }
+            out.truncate(written);
+            return size;
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the peak resident set size of this process in kilobytes,
+     *  or -1 if it is not available. */
+    static long peakRss() {
+        try {
+            for (String line
+                     : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            return -1;
+        }
+        return -1;
+    }
+}
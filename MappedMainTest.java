@@ -0,0 +1,136 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/** The suite of all JUnit tests for the MappedMain class and the
+ *  pass-through and strip policies of Machine.convert on buffers.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class MappedMainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with a plugboard, at a fixed setting. */
+    private static Machine machine() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                          UPPER));
+        return mach;
+    }
+
+    /** Return LEN random bytes drawn from RANDOM: mostly letters of both
+     *  cases, with spaces, digits, newlines and non-ASCII bytes. */
+    private static byte[] input(int len, Random random) {
+        String others = " 0123456789\n,.\u00c9\u00ff";
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i++) {
+            int pick = random.nextInt(10);
+            char ch;
+            if (pick < 4) {
+                ch = (char) ('A' + random.nextInt(26));
+            } else if (pick < 7) {
+                ch = (char) ('a' + random.nextInt(26));
+            } else {
+                ch = others.charAt(random.nextInt(others.length()));
+            }
+            result[i] = (byte) ch;
+        }
+        return result;
+    }
+
+    /** Return the conversion of IN by machine(), with the bytes that are
+     *  not letters copied through, or dropped if STRIP, as computed by
+     *  Machine.convert(String). */
+    private static byte[] expected(byte[] in, boolean strip) {
+        StringBuilder letters = new StringBuilder();
+        for (byte b : in) {
+            if (Character.isLetter((char) b) && b > 0) {
+                letters.append(Character.toUpperCase((char) b));
+            }
+        }
+        String converted = machine().convert(letters.toString());
+        StringBuilder result = new StringBuilder();
+        int k = 0;
+        for (byte b : in) {
+            if (Character.isLetter((char) b) && b > 0) {
+                result.append(converted.charAt(k));
+                k += 1;
+            } else if (!strip) {
+                result.append((char) (b & 0xff));
+            }
+        }
+        return result.toString().getBytes(ISO_8859_1);
+    }
+
+    /** Check that MappedMain converts IN to the expected output under
+     *  each policy, with windows of WINDOW bytes. */
+    private void checkFiles(byte[] in, int window) throws IOException {
+        Path input = Files.createTempFile("mapped", ".in");
+        Path output = Files.createTempFile("mapped", ".out");
+        try {
+            Files.write(input, in);
+            for (boolean strip : new boolean[] {false, true}) {
+                long size = MappedMain.convert(machine(), input, output,
+                                               strip, window);
+                assertEquals(in.length, size);
+                assertArrayEquals("strip=" + strip + " window=" + window,
+                                  expected(in, strip),
+                                  Files.readAllBytes(output));
+            }
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void buffersPassOrStrip() {
+        byte[] in = input(2000, new Random(8));
+        for (boolean strip : new boolean[] {false, true}) {
+            ByteBuffer out = ByteBuffer.allocate(in.length);
+            int written = machine().convert(ByteBuffer.wrap(in), out, strip);
+            assertEquals(out.position(), written);
+            byte[] result = new byte[written];
+            out.flip();
+            out.get(result);
+            assertArrayEquals(expected(in, strip), result);
+        }
+    }
+
+    @Test
+    public void filesMatchAcrossWindows() throws IOException {
+        byte[] in = input(5000, new Random(9));
+        checkFiles(in, 7);
+        checkFiles(in, 4096);
+        checkFiles(in, MappedMain.WINDOW);
+        checkFiles(new byte[0], 7);
+    }
+
+    @Test
+    public void stripTruncatesOutput() throws IOException {
+        byte[] in = "12 34\n56 78\n9".getBytes(ISO_8859_1);
+        checkFiles(in, 5);
+    }
+}
@@ -0,0 +1,219 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.function.Function;
+
+import static enigma.EnigmaException.*;
+
+/** Converts a stream of settings lines and messages chunk by chunk.
+ *  The first line and every line starting with '*' are settings lines;
+ *  all other lines are messages, which are converted in place in the
+ *  input buffer and written in groups of five characters with their
+ *  spaces removed.  Lines are never assembled whole, so a message line
+ *  may be arbitrarily long.
+ *  @author Mohammed Abu-Sharkh
+ */
+class MessageStream {
+    /** Default size in characters of the input and output buffers. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** A stream reading from IN and writing to OUT, which uses SETUP to
+     *  get the machine for the settings line given to it (without its
+     *  leading "* ", and upper-cased). */
+    MessageStream(Reader in, Writer out, Function<String, Machine> setUp) {
+        _in = in;
+        _out = out;
+        _setUp = setUp;
+        _input = new char[BUFFER_SIZE];
+        _output = new char[BUFFER_SIZE];
+        _newline = System.lineSeparator().toCharArray();
+        _first = true;
+    }
+
+    /** A stream reading messages from IN and converting them with MACHINE
+     *  into OUT.  Its first line need not be a settings line; SETUP is
+     *  used for any later ones. */
+    MessageStream(Reader in, Writer out, Function<String, Machine> setUp,
+                  Machine machine) {
+        this(in, out, setUp);
+        _machine = machine;
+        _first = false;
+    }
+
+    /** Process all of my input, flushing the results to my output.  If
+     *  a line cannot be processed, the output of the lines before it is
+     *  still flushed. */
+    void process() throws IOException {
+        try {
+            read();
+        } finally {
+            flush();
+            _out.flush();
+        }
+    }
+
+    /** Read and process all of my input. */
+    private void read() throws IOException {
+        char[] buf = _input;
+        int n;
+        while ((n = _in.read(buf, 0, buf.length)) >= 0) {
+            int i = 0;
+            while (i < n) {
+                if (_skipNewline) {
+                    _skipNewline = false;
+                    if (buf[i] == '\n') {
+                        i += 1;
+                        continue;
+                    }
+                }
+                if (_mode == START) {
+                    _mode = _first || buf[i] == '*' ? SETTINGS : MESSAGE;
+                    _first = false;
+                }
+                int end = i;
+                while (end < n && !isTerminator(buf[end])) {
+                    end += 1;
+                }
+                if (_mode == SETTINGS) {
+                    _settings.append(buf, i, end - i);
+                } else {
+                    convert(buf, i, end);
+                }
+                if (end < n) {
+                    endLine();
+                    _skipNewline = buf[end] == '\r';
+                    end += 1;
+                }
+                i = end;
+            }
+        }
+        if (_mode != START) {
+            endLine();
+        } else if (_first) {
+            throw error("no settings line");
+        }
+        endSession();
+    }
+
+    /** Convert BUF[START .. END-1] in place and write the result, timing
+     *  the conversion if my machine records metrics. */
+    private void convert(char[] buf, int start, int end) {
+        if (_machine.metrics() == null) {
+            _machine.convert(buf, start, end - start, buf, start);
+        } else {
+            long t0 = System.nanoTime();
+            _machine.convert(buf, start, end - start, buf, start);
+            _sessionNanos += System.nanoTime() - t0;
+        }
+        emit(buf, start, end);
+    }
+
+    /** Record the session of the current machine in its metrics, if
+     *  any. */
+    private void endSession() {
+        if (_machine != null && _machine.metrics() != null) {
+            _machine.metrics().session(_sessionNanos);
+        }
+        _sessionNanos = 0;
+    }
+
+    /** Finish the current line. */
+    private void endLine() {
+        if (_mode == SETTINGS) {
+            String line = _settings.toString().toUpperCase();
+            _settings.setLength(0);
+            if (line.length() < 2) {
+                throw error("bad settings line: %s", line);
+            }
+            endSession();
+            _machine = _setUp.apply(line.substring(2));
+        } else {
+            for (char ch : _newline) {
+                put(ch);
+            }
+            _group = 0;
+        }
+        _mode = START;
+    }
+
+    /** Write the non-space characters of BUF[START .. END-1], in groups
+     *  of five. */
+    private void emit(char[] buf, int start, int end) {
+        for (int k = start; k < end; k += 1) {
+            char ch = buf[k];
+            if (ch != ' ') {
+                if (_group == GROUP) {
+                    put(' ');
+                    _group = 0;
+                }
+                put(ch);
+                _group += 1;
+            }
+        }
+    }
+
+    /** Append CH to the output buffer. */
+    private void put(char ch) {
+        if (_outLength == _output.length) {
+            try {
+                flush();
+            } catch (IOException excp) {
+                throw error("could not write output: %s", excp.getMessage());
+            }
+        }
+        _output[_outLength] = ch;
+        _outLength += 1;
+    }
+
+    /** Write out the output buffer. */
+    private void flush() throws IOException {
+        _out.write(_output, 0, _outLength);
+        _outLength = 0;
+    }
+
+    /** Return true iff CH ends a line, as for Scanner.nextLine. */
+    static boolean isTerminator(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u2028' || ch == '\u2029'
+            || ch == '\u0085';
+    }
+
+    /** Line modes: at the start of a line, in a settings line, or in a
+     *  message line. */
+    private static final int START = 0, SETTINGS = 1, MESSAGE = 2;
+    /** Number of characters in a group of output. */
+    private static final int GROUP = 5;
+
+    /** Source of settings and messages. */
+    private final Reader _in;
+    /** Destination of converted messages. */
+    private final Writer _out;
+    /** Produces the machine for a settings line. */
+    private final Function<String, Machine> _setUp;
+    /** Input buffer, in which messages are converted. */
+    private final char[] _input;
+    /** Output buffer. */
+    private final char[] _output;
+    /** Number of characters in _output. */
+    private int _outLength;
+    /** The line separator. */
+    private final char[] _newline;
+    /** The current settings line so far. */
+    private final StringBuilder _settings = new StringBuilder();
+    /** The machine for the current messages. */
+    private Machine _machine;
+    /** Time spent converting with _machine, if it records metrics. */
+    private long _sessionNanos;
+    /** True iff the next line is the first and must be a settings
+     *  line. */
+    private boolean _first;
+    /** The current line mode. */
+    private int _mode = START;
+    /** Number of characters in the current output group. */
+    private int _group;
+    /** True iff the last line ended with '\r', so that a following
+     *  '\n' is part of the same terminator. */
+    private boolean _skipNewline;
+}
@@ -0,0 +1,89 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MessageStream class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class MessageStreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings lines passed to the stream. */
+    private List<String> settings = new ArrayList<>();
+
+    /** Return the output of streaming INPUT through machines whose rotors
+     *  are all the identity, so that messages map to themselves except
+     *  for the reflector (AB). */
+    private String stream(String input) throws IOException {
+        StringWriter out = new StringWriter();
+        new MessageStream(new StringReader(input), out, s -> {
+            settings.add(s);
+            List<Rotor> rotors = new ArrayList<>();
+            rotors.add(new Reflector("R", new Permutation("(AB)", UPPER)));
+            rotors.add(new FixedRotor("F", new Permutation("", UPPER)));
+            Machine mach = new Machine(UPPER, 2, 0, rotors);
+            mach.insertRotors(new String[] {"R", "F"});
+            return mach;
+        }).process();
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void groupsOfFive() throws IOException {
+        assertEquals("BACDE FGHIJ K\n\nCDB\n",
+                     stream("* R F A\nAB cde fghijk\n\nCD  A\n"));
+        assertEquals("[R F A]", settings.toString());
+    }
+
+    @Test
+    public void settingsLines() throws IOException {
+        assertEquals("B\nA\n", stream("* r f a\nA\n* R F B\nB"));
+        assertEquals("[R F A, R F B]", settings.toString());
+    }
+
+    @Test
+    public void lineTerminators() throws IOException {
+        assertEquals("B\n\nA\nC\n", stream("* R F A\r\nA\r\n\rB\rC\u2028"));
+    }
+
+    @Test
+    public void longLine() throws IOException {
+        StringBuilder msg = new StringBuilder("* R F A\n");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3 * MessageStream.BUFFER_SIZE; i += 1) {
+            msg.append(i % 2 == 0 ? "AB" : " ");
+        }
+        for (int i = 0; i < 3 * MessageStream.BUFFER_SIZE; i += 1) {
+            if (i % 5 == 0 && i > 0) {
+                expected.append(' ');
+            }
+            expected.append(i % 2 == 0 ? 'B' : 'A');
+        }
+        assertEquals(expected.append('\n').toString(),
+                     stream(msg.toString()));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void missingSettings() throws IOException {
+        stream("");
+    }
+}
@@ -0,0 +1,325 @@
+package enigma;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import static enigma.EnigmaException.*;
+
+/** Counters describing the work done by a run of machines: characters
+ *  converted, advances of each rotor, notches hit and double steps, a
+ *  histogram of the time spent converting each session (a settings line
+ *  and its messages), and the bytes and time spent on input and output.
+ *  A Metrics may be shared by machines running in several threads.
+ *  Components record into a Metrics only when given one, so that when
+ *  metrics are off they cost a null test.
+ *  <p>
+ *  Advances are counted by rotor, under the rotor's ID in its bank,
+ *  whatever slot it was in, so that sessions that order the rotors
+ *  differently add to the same counters.
+ *  <p>
+ *  The counters are published as the attributes of a JMX MBean by
+ *  register(), and summarized in one line of key=value pairs by
+ *  toString().  Only rotors that have advanced are listed.
+ *  @author Mohammed Abu-Sharkh
+ */
+class Metrics implements DynamicMBean {
+
+    /** Name of the MBean registered by register(). */
+    static final String MBEAN_NAME = "enigma:type=Metrics";
+    /** Number of buckets of the session time histogram.  Bucket K counts
+     *  sessions that took less than 2**K nanoseconds (and at least
+     *  2**(K-1), if K > 0). */
+    static final int BUCKETS = 64;
+
+    /** Metrics for machines using the rotors of BANK. */
+    Metrics(RotorBank bank) {
+        _bank = bank;
+        _advances = new AtomicLongArray(bank.ids());
+    }
+
+    /** Record that N characters were converted. */
+    void converted(long n) {
+        _chars.add(n);
+    }
+
+    /** Record that the rotor whose ID is ROTOR advanced. */
+    void advanced(int rotor) {
+        _advances.incrementAndGet(rotor);
+    }
+
+    /** Record that a pawl found a notch. */
+    void notchHit() {
+        _notchHits.increment();
+    }
+
+    /** Record that a rotor stepped because of its own notch, along with
+     *  its left neighbor. */
+    void doubleStep() {
+        _doubleSteps.increment();
+    }
+
+    /** Record a session that spent NANOS nanoseconds converting. */
+    void session(long nanos) {
+        _sessions.increment();
+        _sessionNanos.add(nanos);
+        _maxSessionNanos.accumulate(nanos);
+        _histogram.incrementAndGet(BUCKETS
+                                   - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /** Return the bank of the rotors whose advances I count. */
+    RotorBank bank() {
+        return _bank;
+    }
+
+    /** Return the number of characters converted. */
+    long chars() {
+        return _chars.sum();
+    }
+
+    /** Return the number of times the rotor named NAME advanced, in
+     *  any slot. */
+    long advances(String name) {
+        int id = _bank.id(name.toUpperCase());
+        if (id < 0) {
+            throw error("unknown rotor: %s", name);
+        }
+        return _advances.get(id);
+    }
+
+    /** Return the number of notches hit. */
+    long notchHits() {
+        return _notchHits.sum();
+    }
+
+    /** Return the number of double steps. */
+    long doubleSteps() {
+        return _doubleSteps.sum();
+    }
+
+    /** Return the number of sessions recorded. */
+    long sessions() {
+        return _sessions.sum();
+    }
+
+    /** Return an upper bound on the conversion time of the fraction Q of
+     *  sessions that were fastest, from the histogram, or 0 if there were
+     *  no sessions. */
+    long sessionQuantile(double q) {
+        long total = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            total += _histogram.get(k);
+        }
+        long rank = (long) Math.ceil(q * total), seen = 0;
+        for (int k = 0; k < BUCKETS && total > 0; k++) {
+            seen += _histogram.get(k);
+            if (seen >= rank) {
+                return k == BUCKETS - 1 ? Long.MAX_VALUE : 1L << k;
+            }
+        }
+        return 0;
+    }
+
+    /** Return CHANNEL, counting the bytes read through it and the time
+     *  spent reading. */
+    ReadableByteChannel input(ReadableByteChannel channel) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                long start = System.nanoTime();
+                int n = channel.read(dst);
+                _inputNanos.add(System.nanoTime() - start);
+                if (n > 0) {
+                    _inputBytes.add(n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /** Return OUT, counting the bytes written through it and the time
+     *  spent writing and flushing. */
+    OutputStream output(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                out.write(b, off, len);
+                _outputNanos.add(System.nanoTime() - start);
+                _outputBytes.add(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = System.nanoTime();
+                out.flush();
+                _outputNanos.add(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /** Return my counters by name, in a fixed order. */
+    Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("chars", chars());
+        for (int id = 0; id < _advances.length(); id++) {
+            String name = _bank.name(id);
+            if (name != null && _advances.get(id) > 0) {
+                result.put("advances." + name, _advances.get(id));
+            }
+        }
+        result.put("notchHits", notchHits());
+        result.put("doubleSteps", doubleSteps());
+        result.put("sessions", sessions());
+        result.put("sessionNanos", _sessionNanos.sum());
+        result.put("sessionNanosP50", sessionQuantile(0.5));
+        result.put("sessionNanosP99", sessionQuantile(0.99));
+        result.put("sessionNanosMax", _maxSessionNanos.get());
+        result.put("inputBytes", _inputBytes.sum());
+        result.put("inputNanos", _inputNanos.sum());
+        result.put("outputBytes", _outputBytes.sum());
+        result.put("outputNanos", _outputNanos.sum());
+        return result;
+    }
+
+    /** Register me with the platform MBean server as MBEAN_NAME,
+     *  replacing any Metrics registered before. */
+    void register() {
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String name)
+        throws AttributeNotFoundException {
+        Long value = snapshot().get(name);
+        if (value == null) {
+            throw new AttributeNotFoundException(name);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Long> values = snapshot();
+        AttributeList result = new AttributeList();
+        for (String name : names) {
+            if (values.containsKey(name)) {
+                result.add(new Attribute(name, values.get(name)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute)
+        throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName()
+                                             + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] sig)
+        throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Long> values = snapshot();
+        MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attrs[i] = new MBeanAttributeInfo(name, "long", name, true,
+                                              false, false);
+            i += 1;
+        }
+        return new MBeanInfo(getClass().getName(), "Enigma metrics", attrs,
+                             null, new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("metrics");
+        for (Map.Entry<String, Long> e : snapshot().entrySet()) {
+            result.append(' ').append(e.getKey()).append('=')
+                .append(e.getValue());
+        }
+        return result.toString();
+    }
+
+    /** Characters converted. */
+    private final LongAdder _chars = new LongAdder();
+    /** Rotors whose advances I count. */
+    private final RotorBank _bank;
+    /** Advances of each rotor, by ID. */
+    private final AtomicLongArray _advances;
+    /** Notches hit and double steps. */
+    private final LongAdder _notchHits = new LongAdder(),
+        _doubleSteps = new LongAdder();
+    /** Sessions and their total conversion time. */
+    private final LongAdder _sessions = new LongAdder(),
+        _sessionNanos = new LongAdder();
+    /** Longest session conversion time. */
+    private final LongAccumulator _maxSessionNanos =
+        new LongAccumulator(Math::max, 0);
+    /** Session conversion time histogram, by power of two. */
+    private final AtomicLongArray _histogram = new AtomicLongArray(BUCKETS);
+    /** Input and output bytes and times. */
+    private final LongAdder _inputBytes = new LongAdder(),
+        _inputNanos = new LongAdder(), _outputBytes = new LongAdder(),
+        _outputNanos = new LongAdder();
+}
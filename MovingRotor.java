@@ -8,6 +8,8 @@ import static enigma.EnigmaException.*;
 class MovingRotor extends Rotor {
     /** String representation of notches. */
     private String _notches;
+    /** _atNotch[k] is true iff setting k is one of my notches. */
+    private final boolean[] _atNotch;
 
     /** A rotor named NAME whose permutation in its default setting is
      *  PERM, and whose notches are at the positions indicated in NOTCHES.
@@ -18,6 +20,12 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        _atNotch = new boolean[size()];
+        for (int i = 0; i < notches.length(); i++) {
+            if (alphabet().contains(notches.charAt(i))) {
+                _atNotch[alphabet().toInt(notches.charAt(i))] = true;
+            }
+        }
     }
 
     @Override
@@ -27,16 +35,17 @@ class MovingRotor extends Rotor {
 
     @Override
     void advance() {
-        set(permutation().wrap(setting() + 1));
+        int next = setting() + 1;
+        set(next == size() ? 0 : next);
     }
 
     @Override
     boolean atNotch() {
-        for (int i = 0; i < _notches.length(); i++) {
-            if (_notches.charAt(i) == alphabet().toChar(setting())) {
-                return true;
-            }
-        }
-        return false;
+        return _atNotch[setting()];
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _atNotch[posn];
     }
 }
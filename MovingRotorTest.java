@@ -71,4 +71,21 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkCompiledRotor() {
+        setRotor("I", NAVALA, "");
+        rotor.compile();
+        assertTrue(rotor.compiled());
+        checkRotor("Rotor I compiled", UPPER_STRING, NAVALA_MAP.get("I"));
+        rotor.advance();
+        checkRotor("Rotor I compiled advanced", UPPER_STRING,
+                   NAVALB_MAP.get("I"));
+        rotor.set(25);
+        checkRotor("Rotor I compiled set", UPPER_STRING,
+                   NAVALZ_MAP.get("I"));
+        rotor.advance();
+        checkRotor("Rotor I compiled wrapped", UPPER_STRING,
+                   NAVALA_MAP.get("I"));
+    }
+
 }
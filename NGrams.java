@@ -0,0 +1,379 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A Fitness scoring text by the log-likelihood of its n-grams (runs of
+ *  N consecutive characters) under a table of n-gram frequencies.  The
+ *  score of a text is the mean base-10 logarithm of the probability of
+ *  its n-grams, so texts of different lengths are comparable; n-grams
+ *  never seen in training get a small floor probability.  Trigrams and
+ *  quadgrams separate language from near-random text far better than
+ *  the index of coincidence, which makes them suitable for recovering
+ *  plugboards.  A table is immutable, so one may be shared by any
+ *  number of threads.
+ *  <p>
+ *  Tables may be learned from a corpus, read from a file of counts
+ *  (lines such as "TION 4512"), or loaded from the binary form written
+ *  by write().  A binary table is mapped into memory rather than read,
+ *  so a large one costs no heap and loads in no time, and processes
+ *  using the same file share its pages.  The binary form is MAGIC, N
+ *  and the alphabet size as 32-bit integers, the alphabet's characters
+ *  as 16-bit units, padding to a multiple of 4 bytes, and the log
+ *  probabilities as 32-bit floats, all little-endian.
+ *  <p>
+ *  Scoring keeps a rolling n-gram index, so it costs one multiply and
+ *  one lookup per character and allocates nothing.
+ *  @author Mohammed Abu-Sharkh
+ */
+class NGrams implements Fitness {
+
+    /** Largest number of entries in a table. */
+    static final int MAX_ENTRIES = 1 << 26;
+    /** First four bytes of a binary table: "NGRM". */
+    static final int MAGIC = 0x4e47524d;
+    /** Bytes of log probabilities written at a time by write(). */
+    private static final int BLOCK = 1 << 16;
+
+    /** A table of N-grams over ALPHA with base-10 log probabilities
+     *  LOGS, indexed by the n-gram's characters as digits in base
+     *  ALPHA.size(), the first most significant. */
+    NGrams(Alphabet alpha, int n, float[] logs) {
+        this(alpha, n, FloatBuffer.wrap(logs));
+    }
+
+    /** As for NGrams(ALPHA, N, float[]), with the log probabilities
+     *  LOGS, from index 0 to its capacity. */
+    private NGrams(Alphabet alpha, int n, FloatBuffer logs) {
+        int entries = entries(alpha.size(), n);
+        if (logs.capacity() != entries) {
+            throw error("%d-gram table for %d characters has %d entries",
+                        n, alpha.size(), logs.capacity());
+        }
+        _alphabet = alpha;
+        _n = n;
+        _logs = logs;
+        _top = entries / alpha.size();
+    }
+
+    /** Write a binary table, as specified by ARGS: options "-n N" (the
+     *  length of the n-grams learned from a corpus; default 4) and "-c"
+     *  (the input is a file of counts rather than a corpus), followed by
+     *  the name of a configuration file giving the alphabet, the input
+     *  file, and the output file. */
+    public static void main(String... args) {
+        try {
+            int n = 4;
+            boolean counts = false;
+            int i = 0;
+            for (; i < args.length && args[i].startsWith("-"); i += 1) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    n = Integer.parseInt(args[i + 1]);
+                    i += 1;
+                } else if (args[i].equals("-c")) {
+                    counts = true;
+                } else {
+                    throw error("unknown option %s", args[i]);
+                }
+            }
+            if (args.length - i != 3) {
+                throw error("usage: java enigma.NGrams [-n N] [-c] CONFIG"
+                            + " INPUT OUTPUT");
+            }
+            Alphabet alpha = Main.readMachine(args[i]).alphabet();
+            Path input = Paths.get(args[i + 1]);
+            NGrams table = counts ? load(alpha, input)
+                : train(alpha, n, Files.readString(input,
+                                                   StandardCharsets.UTF_8));
+            table.write(Paths.get(args[i + 2]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the table of N-grams of CORPUS over ALPHA.  Characters
+     *  of CORPUS not in ALPHA, even when upper-cased, are skipped. */
+    static NGrams train(Alphabet alpha, int n, CharSequence corpus) {
+        int size = alpha.size();
+        int entries = entries(size, n);
+        long[] counts = new long[entries];
+        int index = 0, seen = 0;
+        for (int i = 0; i < corpus.length(); i++) {
+            int c = alpha.indexOf(Character.toUpperCase(corpus.charAt(i)));
+            if (c < 0) {
+                continue;
+            }
+            index = (int) (((long) index * size + c) % entries);
+            seen += 1;
+            if (seen >= n) {
+                counts[index] += 1;
+            }
+        }
+        return fromCounts(alpha, n, counts);
+    }
+
+    /** Return the table over ALPHA in FILE, which is either a binary
+     *  table, which is mapped, or a file of counts: lines holding an
+     *  n-gram and its count, separated by blanks, all n-grams having the
+     *  same length.  Characters of counted n-grams are upper-cased if
+     *  they are not in ALPHA. */
+    static NGrams load(Alphabet alpha, Path file) throws IOException {
+        if (isTable(file)) {
+            return map(alpha, file);
+        }
+        int size = alpha.size(), n = -1;
+        long[] counts = null;
+        try (BufferedReader in =
+                 Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int lineNum = 0;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                lineNum += 1;
+                String[] fields = line.trim().split("\\s+");
+                if (fields[0].isEmpty()) {
+                    continue;
+                }
+                if (fields.length != 2) {
+                    throw error("%s:%d: expected an n-gram and a count",
+                                file, lineNum);
+                }
+                if (counts == null) {
+                    n = fields[0].length();
+                    counts = new long[entries(size, n)];
+                } else if (fields[0].length() != n) {
+                    throw error("%s:%d: expected a %d-gram", file, lineNum,
+                                n);
+                }
+                int index = 0;
+                for (int i = 0; i < n; i++) {
+                    char ch = fields[0].charAt(i);
+                    int c = alpha.contains(ch) ? alpha.indexOf(ch)
+                        : alpha.indexOf(Character.toUpperCase(ch));
+                    if (c < 0) {
+                        throw error("%s:%d: '%c' is not in the alphabet",
+                                    file, lineNum, ch);
+                    }
+                    index = index * size + c;
+                }
+                try {
+                    counts[index] += Long.parseLong(fields[1]);
+                } catch (NumberFormatException excp) {
+                    throw error("%s:%d: bad count", file, lineNum);
+                }
+            }
+        }
+        if (counts == null) {
+            throw error("%s has no n-grams", file);
+        }
+        return fromCounts(alpha, n, counts);
+    }
+
+    /** Return true iff FILE starts as a binary table does. */
+    static boolean isTable(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer head =
+                ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                continue;
+            }
+            return !head.hasRemaining() && head.getInt(0) == MAGIC;
+        }
+    }
+
+    /** Return the binary table over ALPHA in FILE, mapped into memory. */
+    private static NGrams map(Alphabet alpha, Path file) throws IOException {
+        int size = alpha.size();
+        try (FileChannel channel = FileChannel.open(file)) {
+            int header = header(size);
+            if (channel.size() < header) {
+                throw error("%s is truncated", file);
+            }
+            ByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+            int n = bytes.getInt(4);
+            if (bytes.getInt(8) != size) {
+                throw error("%s is for another alphabet", file);
+            }
+            for (int c = 0; c < size; c++) {
+                if (bytes.getChar(12 + 2 * c) != alpha.toChar(c)) {
+                    throw error("%s is for another alphabet", file);
+                }
+            }
+            long expected = header + 4L * entries(size, n);
+            if (channel.size() != expected) {
+                throw error("%s has %d bytes, not %d", file, channel.size(),
+                            expected);
+            }
+            bytes.position(header);
+            return new NGrams(alpha, n, bytes.slice()
+                              .order(ByteOrder.LITTLE_ENDIAN)
+                              .asFloatBuffer());
+        }
+    }
+
+    /** Write me to FILE as a binary table. */
+    void write(Path file) throws IOException {
+        int size = _alphabet.size();
+        ByteBuffer buf = ByteBuffer.allocate(header(size) + BLOCK)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(_n).putInt(size);
+        for (int c = 0; c < size; c++) {
+            buf.putChar(_alphabet.toChar(c));
+        }
+        while (buf.position() % 4 != 0) {
+            buf.put((byte) 0);
+        }
+        try (FileChannel out = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int k = 0; k < _logs.capacity(); k++) {
+                if (buf.remaining() < 4) {
+                    drain(buf, out);
+                }
+                buf.putFloat(_logs.get(k));
+            }
+            drain(buf, out);
+        }
+    }
+
+    /** Write the contents of BUF to OUT, and clear BUF. */
+    private static void drain(ByteBuffer buf, FileChannel out)
+        throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /** Return the length of the header of a binary table for SIZE
+     *  characters. */
+    private static int header(int size) {
+        return (12 + 2 * size + 3) & ~3;
+    }
+
+    /** Return the table of N-grams over ALPHA with COUNTS, indexed as
+     *  for the constructor. */
+    private static NGrams fromCounts(Alphabet alpha, int n, long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            throw error("corpus has no %d-grams", n);
+        }
+        float[] logs = new float[counts.length];
+        float floor = (float) Math.log10(FLOOR / total);
+        for (int k = 0; k < counts.length; k++) {
+            logs[k] = counts[k] == 0 ? floor
+                : (float) Math.log10((double) counts[k] / total);
+        }
+        return new NGrams(alpha, n, logs);
+    }
+
+    /** Return the number of entries of a table of N-grams over SIZE
+     *  characters. */
+    static int entries(int size, int n) {
+        if (n < 1) {
+            throw error("n-grams must have at least one character");
+        }
+        long entries = 1;
+        for (int i = 0; i < n; i++) {
+            entries *= size;
+            if (entries > MAX_ENTRIES) {
+                throw error("%d-gram table for %d characters is too large",
+                            n, size);
+            }
+        }
+        return (int) entries;
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        if (len < _n) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        FloatBuffer logs = _logs;
+        int size = _alphabet.size(), top = _top, n = _n;
+        int prefix = 0;
+        for (int i = 0; i < n - 1; i++) {
+            prefix = prefix * size + text[i];
+        }
+        double sum = 0;
+        for (int i = n - 1; i < len; i++) {
+            int index = prefix * size + text[i];
+            sum += logs.get(index);
+            prefix = index - text[i - n + 1] * top;
+        }
+        return sum / (len - n + 1);
+    }
+
+    /** Return the fitness of the first LEN characters of TEXT, as for
+     *  score(int[], int).  As in train, characters are upper-cased, and
+     *  those then not in my alphabet are skipped. */
+    double score(char[] text, int len) {
+        FloatBuffer logs = _logs;
+        int size = _alphabet.size(), top = _top, n = _n;
+        int prefix = 0, seen = 0;
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            int c = _alphabet.indexOf(Character.toUpperCase(text[i]));
+            if (c < 0) {
+                continue;
+            }
+            int index = prefix * size + c;
+            seen += 1;
+            if (seen >= n) {
+                sum += logs.get(index);
+            }
+            prefix = index % top;
+        }
+        return seen < n ? Double.NEGATIVE_INFINITY : sum / (seen - n + 1);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the length of my n-grams. */
+    int n() {
+        return _n;
+    }
+
+    /** Return the log probability of the n-gram with index K. */
+    float log(int k) {
+        return _logs.get(k);
+    }
+
+    /** Count assigned to n-grams missing from the corpus. */
+    private static final double FLOOR = 0.01;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+    /** Length of my n-grams. */
+    private final int _n;
+    /** Base-10 log probabilities, by index, on the heap or mapped.  Only
+     *  absolute gets are used, so threads may share it. */
+    private final FloatBuffer _logs;
+    /** Number of (n-1)-grams: the weight of an n-gram's first
+     *  character in its index. */
+    private final int _top;
+}
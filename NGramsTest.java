@@ -0,0 +1,105 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the NGrams class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class NGramsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void charsScoreLikeIndices() {
+        NGrams quadgrams = NGrams.train(UPPER, 4, KeySearchTest.PLAIN);
+        String text = "THE ODORS OF THE FOREST, AND OF MEADOWS";
+        int[] indices = KeySearch.indices(UPPER, text);
+        assertEquals(quadgrams.score(indices, indices.length),
+                     quadgrams.score(text.toCharArray(), text.length()),
+                     1e-9);
+        assertEquals(Double.NEGATIVE_INFINITY,
+                     quadgrams.score("A B C".toCharArray(), 5), 0);
+        String lower = text.toLowerCase();
+        assertEquals(quadgrams.score(indices, indices.length),
+                     quadgrams.score(lower.toCharArray(), lower.length()),
+                     1e-9);
+    }
+
+    @Test
+    public void tablesRoundTrip() throws IOException {
+        Alphabet alpha = new Alphabet("\u00c0\u00c9AB.");
+        Path counts = Files.createTempFile("enigma", ".txt");
+        Path table = Files.createTempFile("enigma", ".ngrams");
+        try {
+            Files.writeString(counts, "\u00c0A 6\n\n  \u00c9. 3\nab 1\n");
+            NGrams read = NGrams.load(alpha, counts);
+            assertEquals(2, read.n());
+            assertFalse(NGrams.isTable(counts));
+            assertEquals(Math.log10(0.6), read.log(0 * 5 + 2), 1e-6);
+            assertEquals(Math.log10(0.001), read.log(4 * 5 + 4), 1e-6);
+            read.write(table);
+            assertTrue(NGrams.isTable(table));
+            NGrams mapped = NGrams.load(alpha, table);
+            assertEquals(2, mapped.n());
+            for (int k = 0; k < 25; k++) {
+                assertEquals(read.log(k), mapped.log(k), 0);
+            }
+            int[] text = {0, 2, 1, 4, 2, 3};
+            assertEquals(read.score(text, 6), mapped.score(text, 6), 0);
+            try {
+                NGrams.load(UPPER, table);
+                fail("table loaded with another alphabet");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(counts);
+            Files.delete(table);
+        }
+    }
+
+    @Test
+    public void largeAlphabetsWrite() throws IOException {
+        Alphabet alpha = new Alphabet("\u1000-\ua000");
+        StringBuilder corpus = new StringBuilder();
+        for (char c = '\u1000'; c <= '\ua000'; c += 7) {
+            corpus.append(c);
+        }
+        NGrams unigrams = NGrams.train(alpha, 1, corpus);
+        Path table = Files.createTempFile("enigma", ".ngrams");
+        try {
+            unigrams.write(table);
+            NGrams mapped = NGrams.load(alpha, table);
+            for (int k = 0; k < alpha.size(); k += 1000) {
+                assertEquals(unigrams.log(k), mapped.log(k), 0);
+            }
+        } finally {
+            Files.delete(table);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void countsCheckAlphabet() throws IOException {
+        Path counts = Files.createTempFile("enigma", ".txt");
+        try {
+            Files.writeString(counts, "AB 1\nA7 2\n");
+            NGrams.load(UPPER, counts);
+        } finally {
+            Files.delete(counts);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Converts long messages with a Machine by splitting them into chunks
+ *  that are converted concurrently.  Each chunk runs on a private copy of
+ *  the machine that has been advanced, with Machine.advance, to the
+ *  rotor settings at which the chunk starts, so the result is identical
+ *  to that of converting the whole message sequentially.
+ *  @author Mohammed Abu-Sharkh
+ */
+class ParallelMachine {
+
+    /** Default number of characters per chunk. */
+    static final int DEFAULT_CHUNK = 1 << 16;
+
+    /** A ParallelMachine converting with MACHINE on the common fork-join
+     *  pool, in chunks of DEFAULT_CHUNK characters. */
+    ParallelMachine(Machine machine) {
+        this(machine, ForkJoinPool.commonPool(), DEFAULT_CHUNK);
+    }
+
+    /** A ParallelMachine converting with MACHINE on POOL, in chunks of
+     *  CHUNK characters. */
+    ParallelMachine(Machine machine, ForkJoinPool pool, int chunk) {
+        if (chunk <= 0) {
+            throw new EnigmaException("chunk size must be positive");
+        }
+        _machine = machine;
+        _pool = pool;
+        _chunk = chunk;
+    }
+
+    /** Return my machine, whose rotors are left as if it had converted
+     *  everything I have. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Returns the encoding/decoding of MSG, as for Machine.convert. */
+    String convert(String msg) {
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF, as for the same method of Machine.  IN and OUT may be
+     *  the same array, but must not otherwise overlap.  If a character
+     *  cannot be converted, throws an EnigmaException and leaves my
+     *  machine's rotors unchanged.  Returns LEN. */
+    int convert(char[] in, int off, int len, char[] out, int outOff) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        int chunks = (int) (((long) len + _chunk - 1) / _chunk);
+        if (chunks <= 1) {
+            return _machine.convert(in, off, len, out, outOff);
+        }
+        long[] starts = new long[chunks + 1];
+        _pool.invoke(new Chunks(0, chunks, k -> {
+            int from = off + start(k, len), to = off + start(k + 1, len);
+            long presses = 0;
+            for (int i = from; i < to; i++) {
+                if (in[i] != ' ') {
+                    presses += 1;
+                }
+            }
+            starts[k + 1] = presses;
+        }));
+        for (int k = 0; k < chunks; k++) {
+            starts[k + 1] += starts[k];
+        }
+        _pool.invoke(new Chunks(0, chunks, k -> {
+            Machine mach = _machine.copy();
+            mach.advance(starts[k]);
+            int from = start(k, len);
+            mach.convert(in, off + from, start(k + 1, len) - from, out,
+                         outOff + from);
+        }));
+        _machine.advance(starts[chunks]);
+        return len;
+    }
+
+    /** Return the index, relative to the start of a message of LEN
+     *  characters, at which chunk K begins, or LEN if it would begin
+     *  past the end.  The product is computed in long, since it may
+     *  exceed Integer.MAX_VALUE when LEN is near it. */
+    private int start(int k, int len) {
+        return (int) Math.min(len, (long) k * _chunk);
+    }
+
+    /** Work on one chunk, given its index. */
+    private interface ChunkWork {
+        /** Process chunk K. */
+        void run(int k);
+    }
+
+    /** Applies a ChunkWork to a range of chunks, splitting the range
+     *  among workers. */
+    private static class Chunks extends RecursiveAction {
+        /** Apply WORK to chunks FROM .. TO-1. */
+        Chunks(int from, int to, ChunkWork work) {
+            _from = from;
+            _to = to;
+            _work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from == 1) {
+                _work.run(_from);
+            } else {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Chunks(_from, mid, _work),
+                          new Chunks(mid, _to, _work));
+            }
+        }
+
+        /** Range of chunks. */
+        private final int _from, _to;
+        /** What to do with each chunk. */
+        private final ChunkWork _work;
+    }
+
+    /** The machine whose settings start each conversion. */
+    private final Machine _machine;
+    /** Pool running the chunks. */
+    private final ForkJoinPool _pool;
+    /** Characters per chunk. */
+    private final int _chunk;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ParallelMachine class.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class ParallelMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a machine with naval rotors B BETA III IV I at AXLE. */
+    private Machine machine() {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new FixedRotor("BETA",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        rotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        Machine mach = new Machine(UPPER, 5, 3, rotors);
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        return mach;
+    }
+
+    @Test
+    public void matchesSequential() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 300000; i += 1) {
+            msg.append(i % 11 == 0 ? ' ' : (char) ('a' + (i * 31) % 26));
+        }
+        Machine seq = machine();
+        String expected = seq.convert(msg.toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelMachine par = new ParallelMachine(machine(), pool, 1000);
+            assertEquals(expected, par.convert(msg.toString()));
+            assertArrayEquals(seq.positions(), par.machine().positions());
+            assertEquals(seq.convert("CONTINUED"),
+                         par.convert("CONTINUED"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void unevenChunks() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 10001; i += 1) {
+            msg.append(i % 7 == 0 ? ' ' : (char) ('A' + (i * 11) % 26));
+        }
+        Machine seq = machine();
+        String expected = seq.convert(msg.toString());
+        ParallelMachine par =
+            new ParallelMachine(machine(), ForkJoinPool.commonPool(), 777);
+        assertEquals(expected, par.convert(msg.toString()));
+        assertArrayEquals(seq.positions(), par.machine().positions());
+    }
+
+    @Test
+    public void foreignCharLeavesRotors() {
+        Machine mach = machine();
+        int[] start = mach.positions();
+        char[] msg = new char[5000];
+        Arrays.fill(msg, 'A');
+        msg[4321] = '!';
+        try {
+            new ParallelMachine(mach, ForkJoinPool.commonPool(), 100)
+                .convert(msg, 0, msg.length, msg, 0);
+            fail("expected an EnigmaException");
+        } catch (EnigmaException excp) {
+            assertArrayEquals(start, mach.positions());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of the whole-machine mappings of a Machine, keyed by
+ *  the settings of every rotor except the rightmost one.  For each such
+ *  key, a table of size() * size() entries gives, for each setting of the
+ *  rightmost rotor and input index, the output of the plugboard, rotors
+ *  and reflector, or -1 if that entry has not been computed yet.  The
+ *  least recently used table is discarded when the cache is full.
+ *  @author Mohammed Abu-Sharkh
+ */
+class PathCache {
+
+    /** A cache holding at most CAPACITY tables for an alphabet of SIZE
+     *  characters. */
+    PathCache(int size, int capacity) {
+        if (capacity <= 0) {
+            throw new EnigmaException("path cache capacity must be positive");
+        }
+        _size = size;
+        _capacity = capacity;
+        _tables = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> e) {
+                if (size() > _capacity) {
+                    _spare = e.getValue();
+                    _evictions += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Return the table for the rotor settings SETTINGS, creating an
+     *  empty one if needed.  SETTINGS is not retained. */
+    int[] table(int[] settings) {
+        _probe.set(settings);
+        int[] result = _tables.get(_probe);
+        if (result != null) {
+            _tableHits += 1;
+            return result;
+        }
+        _tableMisses += 1;
+        if (_spare != null) {
+            result = _spare;
+            _spare = null;
+        } else {
+            result = new int[_size * _size];
+        }
+        Arrays.fill(result, -1);
+        _tables.put(new Key(settings.clone()), result);
+        return result;
+    }
+
+    /** Discard all tables, as when the rotors or plugboard change. */
+    void clear() {
+        _tables.clear();
+    }
+
+    /** Record a lookup that found its entry already computed. */
+    void hit() {
+        _hits += 1;
+    }
+
+    /** Record a lookup whose entry had to be computed. */
+    void miss() {
+        _misses += 1;
+    }
+
+    /** Return the maximum number of tables I hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return the number of tables I currently hold. */
+    int tables() {
+        return _tables.size();
+    }
+
+    /** Return the number of lookups answered from a table. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that had to run the rotors. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return the number of times a table was found for a new setting of
+     *  the slow rotors. */
+    long tableHits() {
+        return _tableHits;
+    }
+
+    /** Return the number of times a new table had to be started. */
+    long tableMisses() {
+        return _tableMisses;
+    }
+
+    /** Return the number of tables discarded to stay within capacity. */
+    long evictions() {
+        return _evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PathCache[tables=%d/%d hits=%d misses=%d "
+                             + "tableHits=%d tableMisses=%d evictions=%d]",
+                             tables(), _capacity, _hits, _misses,
+                             _tableHits, _tableMisses, _evictions);
+    }
+
+    /** A vector of rotor settings usable as a hash key. */
+    private static class Key {
+        /** A key for SETTINGS. */
+        Key(int[] settings) {
+            set(settings);
+        }
+
+        /** Make me a key for SETTINGS. */
+        void set(int[] settings) {
+            _settings = settings;
+            _hash = Arrays.hashCode(settings);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                && Arrays.equals(_settings, ((Key) obj)._settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The settings. */
+        private int[] _settings;
+        /** Hash code of _settings. */
+        private int _hash;
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+    /** Maximum number of tables. */
+    private final int _capacity;
+    /** Tables in least-recently-used order. */
+    private final LinkedHashMap<Key, int[]> _tables;
+    /** Reusable key for lookups. */
+    private final Key _probe = new Key(new int[0]);
+    /** A table discarded by eviction, reused by the next miss. */
+    private int[] _spare;
+    /** Counters reported by the accessors above. */
+    private long _hits, _misses, _tableHits, _tableMisses, _evictions;
+}
@@ -1,6 +1,8 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -8,38 +10,116 @@ import static enigma.EnigmaException.*;
  *  @author Mohammed Abu-Sharkh
  */
 class Permutation {
-    /** ArrayList that holds indexes of characters.*/
-    private ArrayList<Integer> a;
-    /** String array of cycles. */
-    private String[] _cycles;
+    /** Dense table mapping each index to its image. */
+    private final int[] _forward;
+    /** Dense table mapping each index to its preimage. */
+    private final int[] _inverse;
+    /** True iff malformed cycles are rejected rather than tolerated. */
+    private final boolean _strict;
+
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
+        this(cycles, alphabet, false);
+    }
+
+    /** As for Permutation(CYCLES, ALPHABET), but if STRICT, reject CYCLES
+     *  that repeat a character or are not properly parenthesized, rather
+     *  than letting the first occurrence of a character win. */
+    Permutation(String cycles, Alphabet alphabet, boolean strict) {
+        this(cycles, alphabet, strict, i -> "");
+    }
+
+    /** As for Permutation(CYCLES, ALPHABET, true), but each error message
+     *  starts with WHERE(I), where I is the index in CYCLES of the
+     *  character at fault, so that a caller may say where CYCLES came
+     *  from. */
+    Permutation(String cycles, Alphabet alphabet, IntFunction<String> where) {
+        this(cycles, alphabet, true, where);
+    }
+
+    /** As for Permutation(CYCLES, ALPHABET, STRICT), with error messages
+     *  that start with WHERE(I) for the character at index I at fault. */
+    private Permutation(String cycles, Alphabet alphabet, boolean strict,
+                        IntFunction<String> where) {
         _alphabet = alphabet;
-        int x = 0;
-        a = new ArrayList<Integer>();
-        while (x < _alphabet.size()) {
-            a.add(x);
-            x++;
-        }
-        for (String s: splitter(cycles)) {
-            for (int i = 0; i < s.length(); i++) {
-                if (s.length() == 0) {
-                    continue;
-                } else if (i == (s.length() - 1)) {
-                    a.set(_alphabet.toInt(s.charAt(i)),
-                            _alphabet.toInt(s.charAt(0)));
-                } else {
-                    a.set(_alphabet.toInt(s.charAt(i)),
-                            _alphabet.toInt(s.charAt(i + 1)));
+        _strict = strict;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        Arrays.fill(_forward, -1);
+        Arrays.fill(_inverse, -1);
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char ch = cycles.charAt(i);
+            if (ch == '(') {
+                if (start >= 0) {
+                    throw error("%snested '(' in cycles %s", where.apply(i),
+                                cycles);
                 }
+                start = i + 1;
+            } else if (ch == ')') {
+                if (start < 0) {
+                    throw error("%sunmatched ')' in cycles %s",
+                                where.apply(i), cycles);
+                }
+                addCycle(cycles, start, i, where);
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(ch)) {
+                throw error("%s'%c' is outside of any cycle in %s",
+                            where.apply(i), ch, cycles);
+            }
+        }
+        if (start >= 0) {
+            if (_strict) {
+                throw error("%sunterminated cycle in %s",
+                            where.apply(start - 1), cycles);
+            }
+            addCycle(cycles, start, cycles.length(), where);
+        }
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] < 0) {
+                _forward[i] = i;
+            }
+            if (_inverse[i] < 0) {
+                _inverse[i] = i;
+            }
+        }
+    }
+
+    /** A permutation of ALPHABET taking each index I to FORWARD[I], whose
+     *  inverse takes I to INVERSE[I].  The tables are used, not copied,
+     *  and must not be modified. */
+    Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        if (forward.length != alphabet.size()
+            || inverse.length != alphabet.size()) {
+            throw error("permutation tables do not fit the alphabet");
+        }
+        for (int i = 0; i < forward.length; i++) {
+            if (forward[i] < 0 || forward[i] >= forward.length
+                || inverse[forward[i]] != i) {
+                throw error("permutation tables are not inverses");
             }
         }
-        _cycles = splitter(cycles);
+        _alphabet = alphabet;
+        _strict = true;
+        _forward = forward;
+        _inverse = inverse;
     }
+
+    /** A permutation of ALPHABET with tables FORWARD and INVERSE, which
+     *  are known to be inverses and are not copied.  TRUSTED only
+     *  distinguishes this constructor. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse,
+                        boolean trusted) {
+        _alphabet = alphabet;
+        _strict = true;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
     /** Cycle pre-processing.
      * @param cycles the cycles
      * @return processed cycles string*/
@@ -50,10 +130,43 @@ class Permutation {
         return stringcycle;
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        return;
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where
+     *  c0c1...cm is CYCLES from FROM to TO.  Whitespace within the cycle
+     *  is ignored.  Error messages start with WHERE(I) for the character
+     *  at index I at fault. */
+    private void addCycle(String cycles, int from, int to,
+                          IntFunction<String> where) {
+        int[] at = new int[to - from];
+        int n = 0;
+        for (int k = from; k < to; k++) {
+            if (!Character.isWhitespace(cycles.charAt(k))) {
+                at[n] = k;
+                n += 1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            char ch = cycles.charAt(at[i]);
+            if (!_alphabet.contains(ch)) {
+                String cycle = cycles.substring(from, to);
+                throw error("%s'%c' in cycle (%s) is not in the alphabet",
+                            where.apply(at[i]), ch,
+                            cycle.replaceAll("\\s", ""));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            char ch = cycles.charAt(at[i]);
+            int c = _alphabet.toInt(ch);
+            if (_forward[c] >= 0) {
+                if (_strict) {
+                    throw error("%s'%c' appears more than once in cycles",
+                                where.apply(at[i]), ch);
+                }
+                continue;
+            }
+            _forward[c] = _alphabet.toInt(cycles.charAt(at[(i + 1) % n]));
+            _inverse[c] =
+                _alphabet.toInt(cycles.charAt(at[(i + n - 1) % n]));
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -64,52 +177,28 @@ class Permutation {
         }
         return r;
     }
-    /** Modified version of wrap, includes size.
-     * @param p int to mod
-     * @param size number to mod by
-     * @return r modded*/
-    private int modder(int p, int size) {
-        int r = p % size;
-        if (r < 0) {
-            r += size;
-        }
-        return r;
-    }
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char x = _alphabet.toChar(wrap(p)); char y;
-        for (String cyc: _cycles) {
-            for (int n = 0; n < cyc.length(); n++) {
-                if (cyc.charAt(n) == x) {
-                    y = cyc.charAt((n + 1) % cyc.length());
-                    return _alphabet.toInt(y);
-                }
-            }
+        if (p < 0 || p >= _forward.length) {
+            p = wrap(p);
         }
-        return p;
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char x = _alphabet.toChar(wrap(c)); char y;
-        for (String cyc: _cycles) {
-            for (int n = 0; n < cyc.length(); n++) {
-                if (cyc.charAt(n) == x) {
-                    y = cyc.charAt(modder(n - 1, cyc.length()));
-                    return _alphabet.toInt(y);
-                }
-            }
+        if (c < 0 || c >= _inverse.length) {
+            c = wrap(c);
         }
-        return c;
-
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -131,15 +220,161 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        boolean isd = true;
-        for (int i = 0; i < _alphabet.size(); i++) {
-            if (i == permute(i)) {
-                isd = false;
+        for (int i = 0; i < _forward.length; i++) {
+            if (i == _forward[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the permutation that applies OTHER and then me, which
+     *  takes I to permute(OTHER.permute(I)).  OTHER must have my
+     *  size. */
+    Permutation compose(Permutation other) {
+        int[] forward = composeTable(other, new int[size()]);
+        int[] inverse = new int[size()];
+        for (int i = 0; i < inverse.length; i++) {
+            inverse[i] = other._inverse[_inverse[i]];
+        }
+        return new Permutation(_alphabet, forward, inverse, true);
+    }
+
+    /** Return my inverse.  It shares my tables, and its inverse is
+     *  me. */
+    Permutation inverse() {
+        Permutation result = _inversePerm;
+        if (result == null) {
+            result = new Permutation(_alphabet, _inverse, _forward, true);
+            result._inversePerm = this;
+            _inversePerm = result;
+        }
+        return result;
+    }
+
+    /** Return my conjugate by a shift of K: the permutation taking I to
+     *  permute(I + K) - K, modulo my size, which is the mapping of a
+     *  rotor wired as I am at setting K. */
+    Permutation conjugateByShift(int k) {
+        int[] forward = shiftTable(_forward, k, new int[size()], 0);
+        int[] inverse = shiftTable(_inverse, k, new int[size()], 0);
+        return new Permutation(_alphabet, forward, inverse, true);
+    }
+
+    /** Return my Nth power, which is the identity if N is 0 and a power
+     *  of my inverse if N is negative. */
+    Permutation power(int n) {
+        return new Permutation(_alphabet, powerTable(n, new int[size()]),
+                               powerTable(-n, new int[size()]), true);
+    }
+
+    /** Return the lengths of my cycles, including those of length 1, in
+     *  decreasing order.  They sum to my size. */
+    int[] cycleType() {
+        int n = size();
+        int[] counts = new int[n + 1];
+        boolean[] seen = new boolean[n];
+        int cycles = 0;
+        for (int i = 0; i < n; i++) {
+            if (!seen[i]) {
+                int len = 0;
+                for (int x = i; !seen[x]; x = _forward[x]) {
+                    seen[x] = true;
+                    len += 1;
+                }
+                counts[len] += 1;
+                cycles += 1;
+            }
+        }
+        int[] result = new int[cycles];
+        int k = 0;
+        for (int len = n; len > 0; len -= 1) {
+            for (int c = counts[len]; c > 0; c -= 1) {
+                result[k] = len;
+                k += 1;
             }
         }
-        return isd;
+        return result;
     }
 
+    /** Fill INTO, which must be at least my size, with the table of
+     *  compose(OTHER), and return it. */
+    int[] composeTable(Permutation other, int[] into) {
+        if (other.size() != size()) {
+            throw error("cannot compose permutations of sizes %d and %d",
+                        size(), other.size());
+        }
+        int[] forward = _forward, first = other._forward;
+        for (int i = 0; i < forward.length; i++) {
+            into[i] = forward[first[i]];
+        }
+        return into;
+    }
+
+    /** Fill INTO from OFF with the table of conjugateByShift(K), or of
+     *  its inverse if INVERSE, and return INTO. */
+    int[] shiftTable(int k, boolean inverse, int[] into, int off) {
+        return shiftTable(inverse ? _inverse : _forward, k, into, off);
+    }
+
+    /** Fill INTO, which must be at least my size, with the table of
+     *  power(N), and return it.  Each cycle is walked fewer than three
+     *  times: once to find its length, part way to find the image of its
+     *  first element, and once to fill it in.  So the cost is linear in
+     *  my size and does not depend on N. */
+    int[] powerTable(int n, int[] into) {
+        int size = size();
+        int[] forward = _forward;
+        Arrays.fill(into, 0, size, -1);
+        for (int start = 0; start < size; start++) {
+            if (into[start] >= 0) {
+                continue;
+            }
+            int len = 1;
+            for (int x = forward[start]; x != start; x = forward[x]) {
+                len += 1;
+            }
+            int shift = n % len;
+            if (shift < 0) {
+                shift += len;
+            }
+            int lead = start;
+            for (int j = 0; j < shift; j++) {
+                lead = forward[lead];
+            }
+            int x = start;
+            for (int j = 0; j < len; j++) {
+                into[x] = lead;
+                x = forward[x];
+                lead = forward[lead];
+            }
+        }
+        return into;
+    }
+
+    /** Fill INTO from OFF with the conjugate of TABLE, a permutation
+     *  table, by a shift of K, and return INTO. */
+    private static int[] shiftTable(int[] table, int k, int[] into,
+                                    int off) {
+        int n = table.length;
+        k %= n;
+        if (k < 0) {
+            k += n;
+        }
+        for (int p = 0; p < n; p++) {
+            int q = p + k < n ? p + k : p + k - n;
+            int v = table[q] - k;
+            into[off + p] = v < 0 ? v + n : v;
+        }
+        return into;
+    }
+
+    /** My inverse, once built by inverse(), or null.  This is a racy
+     *  cache, and benign: all other fields are final, so a Permutation
+     *  read through it from another thread is seen fully built, and a
+     *  thread that still sees null only builds an equal inverse. */
+    private Permutation _inversePerm;
+
     /** Alphabet of this permutation. */
     private final Alphabet _alphabet;
 
@@ -96,4 +96,83 @@ public class PermutationTest {
         assertEquals(6, test.invert(2));
 
     }
+
+    @Test
+    public void tablesMatchCycles() {
+        perm = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+                UPPER, true);
+        checkPerm("strict I", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
+    @Test
+    public void adjacentCyclesAreSeparate() {
+        perm = new Permutation("(AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)", UPPER);
+        checkPerm("V", UPPER_STRING, NAVALA_MAP.get("V"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void strictRejectsRepeats() {
+        new Permutation("(ABC) (DA)", UPPER, true);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void rejectsCharsNotInAlphabet() {
+        new Permutation("(AB) (C3)", UPPER, true);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void strictRejectsUnterminatedCycle() {
+        new Permutation("(AB) (CD", UPPER, true);
+    }
+
+    @Test
+    public void derangementTest() {
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+    }
+
+    @Test
+    public void composeAndInverse() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        Permutation q = new Permutation(NAVALA.get("II"), UPPER);
+        Permutation pq = p.compose(q);
+        for (int i = 0; i < 26; i++) {
+            assertEquals(p.permute(q.permute(i)), pq.permute(i));
+            assertEquals(i, pq.invert(pq.permute(i)));
+            assertEquals(p.invert(i), p.inverse().permute(i));
+        }
+        assertSame(p, p.inverse().inverse());
+        assertEquals(26, p.compose(p.inverse()).cycleType().length);
+    }
+
+    @Test
+    public void conjugateMatchesRotor() {
+        Permutation p = new Permutation(NAVALA.get("IV"), UPPER);
+        for (int k = -3; k < 30; k++) {
+            Permutation shifted = p.conjugateByShift(k);
+            for (int i = 0; i < 26; i++) {
+                assertEquals(RotorSpec.forward(p, i, k), shifted.permute(i));
+                assertEquals(RotorSpec.backward(p, i, k), shifted.invert(i));
+            }
+        }
+    }
+
+    @Test
+    public void powerAndCycleType() {
+        int[] type = {5, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1};
+        Permutation p = new Permutation("(ABCDE) (FGH) (IJ)", UPPER);
+        assertArrayEquals(type, p.cycleType());
+        Permutation cube = p.power(3);
+        Permutation slow = p.compose(p).compose(p);
+        for (int i = 0; i < 26; i++) {
+            assertEquals(slow.permute(i), cube.permute(i));
+            assertEquals(p.invert(i), p.power(-1).permute(i));
+            assertEquals(i, p.power(30).permute(i));
+            assertEquals(p.permute(i), p.power(31).permute(i));
+        }
+        assertEquals('D', cube.permute('A'));
+        assertEquals('F', cube.permute('F'));
+        assertArrayEquals(type, p.power(7).cycleType());
+    }
 }
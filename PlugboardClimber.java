@@ -0,0 +1,200 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a message whose rotor order and starting
+ *  positions are known, by hill climbing.  Starting from a given
+ *  plugboard, each pair of characters is tried in turn: an existing
+ *  pair is removed, or the two characters are plugged together (freeing
+ *  their old partners, which may be plugged to each other instead).  A
+ *  change is kept whenever it improves the fitness of the decryption,
+ *  and passes are repeated until none does.
+ *  <p>
+ *  The rotors are simulated once, up front, by Machine.paths.  The
+ *  plugboard only permutes the input and output of those paths, so
+ *  every trial decryption is a pair of table lookups per character.
+ *  @author Mohammed Abu-Sharkh
+ */
+class PlugboardClimber {
+
+    /** A climber for CIPHERTEXT (as alphabet indices) encrypted by
+     *  MACHINE, whose rotors are inserted and set to the starting
+     *  positions of the message, scoring decryptions with FITNESS.
+     *  MACHINE is not changed. */
+    PlugboardClimber(Machine machine, int[] ciphertext, Fitness fitness) {
+        Machine rotors = machine.copy();
+        rotors.setPlugboard(null);
+        _size = machine.alphabet().size();
+        _alphabet = machine.alphabet();
+        _cipher = ciphertext.clone();
+        _paths = rotors.paths(ciphertext.length);
+        _fitness = fitness;
+        _text = new int[ciphertext.length];
+        _maxPairs = _size / 2;
+    }
+
+    /** Allow at most MAXPAIRS plugged pairs. */
+    void setMaxPairs(int maxPairs) {
+        if (maxPairs < 0) {
+            throw error("negative number of pairs");
+        }
+        _maxPairs = maxPairs;
+    }
+
+    /** Return the identity plugboard, as a vector mapping each index to
+     *  its partner. */
+    int[] identity() {
+        int[] result = new int[_size];
+        for (int i = 0; i < _size; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** Return the fitness of the decryption under plugboard PLUG, a
+     *  vector mapping each index to its partner. */
+    double score(int[] plug) {
+        int[] cipher = _cipher, paths = _paths, text = _text;
+        int size = _size;
+        for (int k = 0; k < cipher.length; k++) {
+            text[k] = plug[paths[k * size + plug[cipher[k]]]];
+        }
+        return _fitness.score(text, cipher.length);
+    }
+
+    /** Return the best plugboard found by climbing from START, which is
+     *  not changed and may have no more pairs than are allowed. */
+    int[] climb(int[] start) {
+        int[] plug = start.clone();
+        int pairs = 0;
+        for (int i = 0; i < _size; i++) {
+            if (plug[plug[i]] != i) {
+                throw error("plugboard is not a set of pairs");
+            }
+            pairs += plug[i] > i ? 1 : 0;
+        }
+        if (pairs > _maxPairs) {
+            throw error("plugboard has more than %d pairs", _maxPairs);
+        }
+        double best = score(plug);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _size; a++) {
+                for (int b = a + 1; b < _size; b++) {
+                    int x = plug[a], y = plug[b];
+                    if (x == b) {
+                        unplug(plug, a);
+                        double s = score(plug);
+                        if (s > best) {
+                            best = s;
+                            pairs -= 1;
+                            improved = true;
+                        } else {
+                            plugPair(plug, a, b);
+                        }
+                        continue;
+                    }
+                    int freed = (x != a ? 1 : 0) + (y != b ? 1 : 0);
+                    int newPairs = pairs - freed + 1;
+                    unplug(plug, a);
+                    unplug(plug, b);
+                    plugPair(plug, a, b);
+                    double s = newPairs <= _maxPairs
+                        ? score(plug) : Double.NEGATIVE_INFINITY;
+                    double swapped = Double.NEGATIVE_INFINITY;
+                    if (x != a && y != b) {
+                        plugPair(plug, x, y);
+                        swapped = score(plug);
+                        if (swapped > s && swapped > best) {
+                            best = swapped;
+                            improved = true;
+                            continue;
+                        }
+                        unplug(plug, x);
+                    }
+                    if (s > best) {
+                        best = s;
+                        pairs = newPairs;
+                        improved = true;
+                        continue;
+                    }
+                    unplug(plug, a);
+                    plugPair(plug, a, x);
+                    plugPair(plug, b, y);
+                }
+            }
+        }
+        _score = best;
+        return plug;
+    }
+
+    /** Return the score of the plugboard last returned by climb. */
+    double score() {
+        return _score;
+    }
+
+    /** Return the plugboard PLUG as cycles for a settings line, such as
+     *  "(AB) (CD)". */
+    String cycles(int[] plug) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < plug.length; i++) {
+            if (plug[i] > i) {
+                result.append('(').append(_alphabet.toChar(i))
+                    .append(_alphabet.toChar(plug[i])).append(") ");
+            }
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the plugboard of PERM, which must be a set of pairs, as a
+     *  vector mapping each index to its partner. */
+    static int[] pairs(Permutation perm) {
+        int[] result = new int[perm.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = perm.permute(i);
+            if (perm.permute(result[i]) != i) {
+                throw error("plugboard is not a set of pairs");
+            }
+        }
+        return result;
+    }
+
+    /** Unplug A and its partner in PLUG. */
+    private static void unplug(int[] plug, int a) {
+        int x = plug[a];
+        plug[x] = x;
+        plug[a] = a;
+    }
+
+    /** Plug A and B, which must be unplugged, together in PLUG. */
+    private static void plugPair(int[] plug, int a, int b) {
+        plug[a] = b;
+        plug[b] = a;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PlugboardClimber[len=%d score=%f]",
+                             _cipher.length, _score);
+    }
+
+    /** Alphabet. */
+    private final Alphabet _alphabet;
+    /** Alphabet size. */
+    private final int _size;
+    /** Ciphertext, as indices. */
+    private final int[] _cipher;
+    /** Rotor paths by keypress, as from Machine.paths. */
+    private final int[] _paths;
+    /** Scores decryptions. */
+    private final Fitness _fitness;
+    /** Scratch decryption. */
+    private final int[] _text;
+    /** Largest number of pairs allowed. */
+    private int _maxPairs;
+    /** Score of the last climb. */
+    private double _score = Double.NEGATIVE_INFINITY;
+}
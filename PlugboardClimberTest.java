@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the PlugboardClimber and NGrams
+ *  classes.
+ *  @author Mohammed Abu-Sharkh
+ */
+public class PlugboardClimberTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine with the naval rotors B BETA III IV I at AXLE
+     *  and plugboard PLUGBOARD. */
+    static Machine machine(String plugboard) {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation(plugboard, UPPER));
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void pathsMatchConvert() {
+        Machine mach = machine("");
+        int[] paths = mach.copy().paths(100);
+        for (int k = 0; k < 100; k++) {
+            int c = k % 26;
+            assertEquals(mach.convert(c), paths[k * 26 + c]);
+        }
+    }
+
+    @Test
+    public void trigramsPreferLanguage() {
+        NGrams trigrams = NGrams.train(UPPER, 3, KeySearchTest.PLAIN);
+        assertEquals(26 * 26 * 26, NGrams.entries(26, 3));
+        int[] plain = KeySearch.indices(UPPER, "thestoriesoftheforest");
+        int[] noise = KeySearch.indices(UPPER, "qzxjvkwqpzmxqjvkzwxqp");
+        assertTrue(trigrams.score(plain, plain.length)
+                   > trigrams.score(noise, noise.length));
+        assertEquals(Double.NEGATIVE_INFINITY, trigrams.score(plain, 2), 0);
+    }
+
+    @Test
+    public void recoversPlugboard() {
+        String plugboard = "(AQ) (EP) (SX) (TZ)";
+        String text = KeySearchTest.PLAIN.replace(" ", "");
+        int[] cipher =
+            KeySearch.indices(UPPER, machine(plugboard).convert(text));
+        Machine rotors = machine("");
+        PlugboardClimber climber = new PlugboardClimber(rotors, cipher,
+                NGrams.train(UPPER, 3, KeySearchTest.PLAIN));
+        int[] plug = climber.climb(climber.identity());
+        assertEquals(plugboard, climber.cycles(plug));
+        assertEquals(climber.score(), climber.score(plug), 1e-9);
+        assertArrayEquals(machine("").positions(), rotors.positions());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void tooManyStartingPairs() {
+        int[] cipher = KeySearch.indices(UPPER, "HELLOWORLD");
+        PlugboardClimber climber = new PlugboardClimber(machine(""), cipher,
+                NGrams.train(UPPER, 3, KeySearchTest.PLAIN));
+        climber.setMaxPairs(1);
+        int[] plug = climber.identity();
+        plug[0] = 1;
+        plug[1] = 0;
+        plug[2] = 3;
+        plug[3] = 2;
+        climber.climb(plug);
+    }
+}
@@ -8,6 +8,8 @@ import static enigma.EnigmaException.*;
 class Rotor {
     /** Current setting. */
     private int _setting;
+    /** My wiring, once compile() has built it. */
+    private RotorSpec _spec;
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
@@ -53,7 +55,7 @@ class Rotor {
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        if (posn < 0 || posn > size()) {
+        if (posn < 0 || posn >= size()) {
             throw new EnigmaException("Index out of bounds.");
         } else {
             _setting = posn;
@@ -62,28 +64,61 @@ class Rotor {
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+        set(alphabet().toInt(cposn));
+    }
+
+    /** Precompute my conversions at every setting, so that converting a
+     *  character is a single table lookup.  Does nothing if I am already
+     *  compiled.  Tables are only built if my alphabet has at most
+     *  RotorSpec.MAX_COMPILED_SIZE characters. */
+    void compile() {
+        spec();
+    }
+
+    /** Return true iff compile() has built my tables. */
+    boolean compiled() {
+        return _spec != null && _spec.compiled();
+    }
+
+    /** Return my wiring, without my setting, compiling me first if
+     *  needed.  The result is immutable and may be shared between
+     *  machines and threads.  If several threads compile me at once, each
+     *  may build its own equivalent spec. */
+    RotorSpec spec() {
+        RotorSpec spec = _spec;
+        if (spec == null) {
+            spec = new RotorSpec(this);
+            _spec = spec;
+        }
+        return spec;
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int wrapped = permutation().wrap(p + _setting);
-        int permuted = permutation().permute(wrapped);
-        return permutation().wrap(permuted - _setting);
+        if (_spec != null) {
+            return _spec.convertForward(p, _setting);
+        }
+        return RotorSpec.forward(_permutation, p, _setting);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int wrapped = permutation().wrap(e + _setting);
-        int inverted = permutation().invert(wrapped);
-        return permutation().wrap(inverted - _setting);
+        if (_spec != null) {
+            return _spec.convertBackward(e, _setting);
+        }
+        return RotorSpec.backward(_permutation, e, _setting);
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
+        return notchAt(_setting);
+    }
+
+    /** Returns true iff I would be at a notch at setting POSN. */
+    boolean notchAt(int posn) {
         return false;
     }
 
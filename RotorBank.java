@@ -0,0 +1,146 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to machines, by upper-case name.  A rotor may
+ *  be added already built or as a recipe, which is followed the first
+ *  time the rotor is asked for, so that a bank read from a configuration
+ *  with thousands of rotors costs little more than the rotors used.
+ *  Each rotor also has an ID, its index in the order added, so that a
+ *  name may be resolved once and the rotor then found without hashing.
+ *  A bank may be shared by machines in several threads.
+ *  @author Mohammed Abu-Sharkh
+ */
+class RotorBank {
+
+    /** An empty bank. */
+    RotorBank() {
+    }
+
+    /** A bank holding ROTORS. */
+    RotorBank(Collection<Rotor> rotors) {
+        for (Rotor rotor : rotors) {
+            add(rotor.name(), () -> rotor);
+        }
+    }
+
+    /** Add the rotor named NAME made by RECIPE, replacing any rotor of
+     *  that name.  RECIPE is called at most once. */
+    void add(String name, Supplier<Rotor> recipe) {
+        Entry entry = new Entry(_entries.size(), name.toUpperCase(), recipe);
+        _entries.add(entry);
+        if (_byName.put(entry._name, entry) != null) {
+            _replaced += 1;
+        }
+    }
+
+    /** Return the number of rotors I hold. */
+    int size() {
+        return _entries.size() - _replaced;
+    }
+
+    /** Return the rotor whose upper-case name is NAME, building it if
+     *  need be, or null if there is none. */
+    Rotor get(String name) {
+        Entry entry = _byName.get(name);
+        return entry == null ? null : entry.rotor();
+    }
+
+    /** Return the ID of the rotor whose upper-case name is NAME, or -1
+     *  if there is none. */
+    int id(String name) {
+        Entry entry = _byName.get(name);
+        return entry == null ? -1 : entry._id;
+    }
+
+    /** Return the number of IDs given out, which is more than size()
+     *  if rotors have been replaced.  IDs are 0 to ids() - 1. */
+    int ids() {
+        return _entries.size();
+    }
+
+    /** Return the upper-case name of the rotor whose ID is ID, or null
+     *  if it has been replaced by a later rotor of the same name. */
+    String name(int id) {
+        if (id < 0 || id >= _entries.size()) {
+            throw error("no rotor has ID %d", id);
+        }
+        Entry entry = _entries.get(id);
+        return _byName.get(entry._name) == entry ? entry._name : null;
+    }
+
+    /** Return the rotor whose ID is ID, building it if need be. */
+    Rotor get(int id) {
+        if (id < 0 || id >= _entries.size()) {
+            throw error("no rotor has ID %d", id);
+        }
+        return _entries.get(id).rotor();
+    }
+
+    /** Return all my rotors, in the order they were added, building any
+     *  not yet built.  Rotors later replaced under the same name are
+     *  included. */
+    Collection<Rotor> rotors() {
+        List<Rotor> result = new ArrayList<>();
+        for (Entry entry : _entries) {
+            result.add(entry.rotor());
+        }
+        return result;
+    }
+
+    /** Return the number of rotors built so far. */
+    int built() {
+        int result = 0;
+        for (Entry entry : _entries) {
+            result += entry.built() ? 1 : 0;
+        }
+        return result;
+    }
+
+    /** A rotor, built on demand. */
+    private static class Entry {
+        /** An entry with ID ID for the rotor with upper-case name NAME
+         *  made by RECIPE. */
+        Entry(int id, String name, Supplier<Rotor> recipe) {
+            _id = id;
+            _name = name;
+            _recipe = recipe;
+        }
+
+        /** Return my rotor, building it the first time. */
+        synchronized Rotor rotor() {
+            if (_rotor == null) {
+                _rotor = _recipe.get();
+                _recipe = null;
+            }
+            return _rotor;
+        }
+
+        /** Return true iff my rotor has been built. */
+        synchronized boolean built() {
+            return _rotor != null;
+        }
+
+        /** My ID. */
+        private final int _id;
+        /** My upper-case name. */
+        private final String _name;
+        /** Makes my rotor, or null once it is built. */
+        private Supplier<Rotor> _recipe;
+        /** My rotor, or null if not yet built. */
+        private Rotor _rotor;
+    }
+
+    /** Entries in the order added. */
+    private final List<Entry> _entries = new ArrayList<>();
+    /** Entries by upper-case name. */
+    private final HashMap<String, Entry> _byName = new HashMap<>();
+    /** Number of entries replaced by later ones of the same name. */
+    private int _replaced;
+}
@@ -0,0 +1,189 @@
+package enigma;
+
+/** The immutable wiring of a rotor: its name, permutation, kind and
+ *  notches, with its conversions at every setting precomputed when its
+ *  alphabet is small enough.  A RotorSpec has no setting of its own;
+ *  conversions take the setting as an argument.  It may therefore be
+ *  shared by any number of machines, in any number of threads, each of
+ *  which keeps only the settings of its slots.
+ *  @author Mohammed Abu-Sharkh
+ */
+final class RotorSpec {
+    /** Largest alphabet for which conversion tables are built. */
+    static final int MAX_COMPILED_SIZE = 256;
+
+    /** The wiring of ROTOR, which is not retained. */
+    RotorSpec(Rotor rotor) {
+        _name = rotor.name();
+        _permutation = rotor.permutation();
+        _rotates = rotor.rotates();
+        _reflecting = rotor.reflecting();
+        int n = _permutation.size();
+        _size = n;
+        _notches = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            _notches[k] = rotor.notchAt(k);
+        }
+        if (n > MAX_COMPILED_SIZE) {
+            _forward = _backward = null;
+            return;
+        }
+        int[] forward = new int[n * n];
+        int[] backward = _reflecting ? null : new int[n * n];
+        for (int k = 0; k < n; k++) {
+            _permutation.shiftTable(k, false, forward, k * n);
+            if (backward != null) {
+                _permutation.shiftTable(k, true, backward, k * n);
+            }
+        }
+        _forward = forward;
+        _backward = backward;
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _permutation.alphabet();
+    }
+
+    /** Return my permutation at setting 0. */
+    Permutation permutation() {
+        return _permutation;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return true iff I have a ratchet and can move. */
+    boolean rotates() {
+        return _rotates;
+    }
+
+    /** Return true iff I reflect. */
+    boolean reflecting() {
+        return _reflecting;
+    }
+
+    /** Return true iff I have a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return _notches[posn];
+    }
+
+    /** Return my forward conversion table, whose entry K * size() + P
+     *  is convertForward(P, K), or null if I am not compiled.  The table
+     *  is shared and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return my backward conversion table, as for forwardTable, or null
+     *  if I am not compiled or am a reflector. */
+    int[] backwardTable() {
+        return _backward;
+    }
+
+    /** Return true iff my conversions are table lookups. */
+    boolean compiled() {
+        return _forward != null;
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  at setting SETTING. */
+    int convertForward(int p, int setting) {
+        if (_forward != null) {
+            return _forward[setting * _size + p];
+        }
+        return forward(_permutation, p, setting);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  through my inverse at setting SETTING. */
+    int convertBackward(int e, int setting) {
+        if (_backward != null) {
+            return _backward[setting * _size + e];
+        }
+        if (_reflecting) {
+            throw new EnigmaException("cant do it.");
+        }
+        return backward(_permutation, e, setting);
+    }
+
+    /** Replace each of the size() elements of C starting at OFF by its
+     *  conversion at SETTING, as by convertForward. */
+    void convertForward(int[] c, int off, int setting) {
+        convert(_forward, _permutation, c, off, setting);
+    }
+
+    /** Replace each of the size() elements of C starting at OFF by its
+     *  conversion at SETTING, as by convertBackward. */
+    void convertBackward(int[] c, int off, int setting) {
+        if (_reflecting) {
+            throw new EnigmaException("cant do it.");
+        }
+        convert(_backward, _permutation.inverse(), c, off, setting);
+    }
+
+    /** Replace each of the size elements of C starting at OFF by its
+     *  entry at SETTING in TABLE, a conversion table for PERM, or null if
+     *  there is none. */
+    private void convert(int[] table, Permutation perm, int[] c, int off,
+                         int setting) {
+        int n = _size;
+        if (table != null) {
+            int base = setting * n;
+            for (int i = off; i < off + n; i++) {
+                c[i] = table[base + c[i]];
+            }
+        } else {
+            for (int i = off; i < off + n; i++) {
+                c[i] = forward(perm, c[i], setting);
+            }
+        }
+    }
+
+    /** Return the conversion of P by a rotor wired as PERM at
+     *  SETTING. */
+    static int forward(Permutation perm, int p, int setting) {
+        int wrapped = perm.wrap(p + setting);
+        int permuted = perm.permute(wrapped);
+        return perm.wrap(permuted - setting);
+    }
+
+    /** Return the conversion of E through the inverse of a rotor wired as
+     *  PERM at SETTING. */
+    static int backward(Permutation perm, int e, int setting) {
+        int wrapped = perm.wrap(e + setting);
+        int inverted = perm.invert(wrapped);
+        return perm.wrap(inverted - setting);
+    }
+
+    @Override
+    public String toString() {
+        return "RotorSpec " + _name;
+    }
+
+    /** My name. */
+    private final String _name;
+    /** My permutation at setting 0. */
+    private final Permutation _permutation;
+    /** Alphabet size. */
+    private final int _size;
+    /** True iff I can move. */
+    private final boolean _rotates;
+    /** True iff I am a reflector. */
+    private final boolean _reflecting;
+    /** _notches[k] is true iff I have a notch at setting K. */
+    private final boolean[] _notches;
+    /** _forward[k * size() + p] is convertForward(P, K), or null if not
+     *  compiled. */
+    private final int[] _forward;
+    /** _backward[k * size() + e] is convertBackward(E, K), or null if not
+     *  compiled or I reflect. */
+    private final int[] _backward;
+}
@@ -0,0 +1,455 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.*;
+
+/** The stepping rules of a particular choice of rotors for a Machine,
+ *  applied to vectors of rotor settings (one per slot, the reflector's
+ *  first).  Besides single keypresses, a Stepper can jump a vector of
+ *  settings ahead by any number of keypresses without pressing them one
+ *  at a time.
+ *  <p>
+ *  The first long jump finds the cycle of settings that the vector
+ *  falls into, and remembers the settings just after each event on it,
+ *  with the keypresses from the first.  Later jumps, from any vector
+ *  that reaches that cycle, only walk to it and then look up where they
+ *  land, so they cost the lead-in and a binary search, whatever N.  The
+ *  cycle is shared with the copies made by copy(), so that the chunks
+ *  of a ParallelMachine find it once between them, and is ignored once
+ *  the rotors change.
+ *  @author Mohammed Abu-Sharkh
+ */
+class Stepper {
+
+    /** Settings vectors advanced by fewer keypresses than this many times
+     *  the alphabet size are advanced event by event, without looking for
+     *  the stepping period. */
+    static final long DIRECT_EVENTS = 1 << 12;
+    /** Longest stepping period, in events, that advance() looks for. */
+    static final long MAX_PERIOD_EVENTS = 1 << 24;
+    /** Distance to an event that never happens. */
+    static final long NEVER = Long.MAX_VALUE;
+    /** Longest cycle, in events, that is remembered between jumps. */
+    static final int MAX_ORBIT_EVENTS = 1 << 16;
+    /** Source of the identifiers of stepping rules. */
+    private static final AtomicLong RULES = new AtomicLong();
+
+    /** Stepping rules for ROTORS, in slot order, of which the rightmost
+     *  PAWLS have pawls. */
+    Stepper(RotorSpec[] rotors, int pawls) {
+        int n = rotors.length;
+        _size = rotors[0].size();
+        _first = n - pawls;
+        _last = n - 1;
+        _rotates = new boolean[n];
+        _notches = new boolean[n][_size];
+        _distance = new long[_size];
+        _steps = new boolean[n];
+        _tortoise = new int[n];
+        _hare = new int[n];
+        _column = new int[n];
+        long radix = 1;
+        for (int i = 0; i < n && radix > 0; i++) {
+            radix = radix <= Long.MAX_VALUE / _size ? radix * _size : -1;
+        }
+        _keyed = radix > 0;
+        _orbit = new AtomicReference<>();
+        setRotors(rotors);
+    }
+
+    /** A Stepper with the rules of OTHER, sharing the cycle it has
+     *  found, if any. */
+    private Stepper(Stepper other) {
+        int n = other._rotates.length;
+        _size = other._size;
+        _first = other._first;
+        _last = other._last;
+        _rotates = other._rotates.clone();
+        _notches = new boolean[n][];
+        for (int i = 0; i < n; i++) {
+            _notches[i] = other._notches[i].clone();
+        }
+        _distance = other._distance.clone();
+        _steps = new boolean[n];
+        _tortoise = new int[n];
+        _hare = new int[n];
+        _column = new int[n];
+        _keyed = other._keyed;
+        _orbit = other._orbit;
+        _rules = other._rules;
+    }
+
+    /** Return a Stepper with my rules, for another machine.  It shares
+     *  the cycle of settings I have found, and any that it finds. */
+    Stepper copy() {
+        return new Stepper(this);
+    }
+
+    /** Change my rules to those of ROTORS, which must be as many as I
+     *  had, over an alphabet of the same size, with the same pawls.
+     *  Allocates nothing.  The cycle of settings found for my old rules
+     *  no longer applies to me, but still does to copies made before. */
+    void setRotors(RotorSpec[] rotors) {
+        if (rotors.length != _rotates.length || rotors[0].size() != _size) {
+            throw error("rotors do not fit these stepping rules");
+        }
+        _rules = RULES.incrementAndGet();
+        for (int i = 0; i < rotors.length; i++) {
+            _rotates[i] = rotors[i].rotates();
+            for (int k = 0; k < _size; k++) {
+                _notches[i][k] = rotors[i].notchAt(k);
+            }
+        }
+        boolean[] fast = _notches[_last];
+        if (_rotates[_last]) {
+            long next = NEVER;
+            for (int j = 2 * _size - 1; j >= 0; j -= 1) {
+                if (fast[j % _size]) {
+                    next = j;
+                }
+                if (j < _size) {
+                    _distance[j] = next == NEVER ? NEVER : next - j;
+                }
+            }
+        } else {
+            for (int k = 0; k < _size; k++) {
+                _distance[k] = fast[k] ? 0 : NEVER;
+            }
+        }
+    }
+
+    /** Advance POSNS for one keypress.  The rightmost rotor always
+     *  advances.  Each pawl rotor other than the leftmost one that is at a
+     *  notch advances together with its left neighbor, which gives the
+     *  double step of the middle rotors.  Notches are read before anything
+     *  moves, and no rotor advances more than once.  Returns true iff any
+     *  slot but the rightmost one stepped. */
+    boolean step(int[] posns) {
+        return step(posns, null, null);
+    }
+
+    /** As for step(POSNS), also recording notches hit, double steps and
+     *  advances in METRICS, unless it is null.  IDS[i] is the ID of the
+     *  rotor in slot I, under which its advances are counted. */
+    boolean step(int[] posns, Metrics metrics, int[] ids) {
+        boolean[] steps = _steps;
+        int first = _first, last = _last;
+        for (int i = 0; i < last; i++) {
+            steps[i] = false;
+        }
+        steps[last] = true;
+        for (int i = first + 1; i <= last; i++) {
+            if (_notches[i][posns[i]]) {
+                steps[i] = true;
+                steps[i - 1] = true;
+                if (i == first + 1) {
+                    steps[first - 1] = true;
+                }
+                if (metrics != null) {
+                    metrics.notchHit();
+                    if (i < last) {
+                        metrics.doubleStep();
+                    }
+                }
+            }
+        }
+        boolean slowMoved = false;
+        for (int i = 0; i <= last; i++) {
+            if (steps[i]) {
+                slowMoved |= i < last;
+                if (_rotates[i]) {
+                    int next = posns[i] + 1;
+                    posns[i] = next == _size ? 0 : next;
+                    if (metrics != null) {
+                        metrics.advanced(ids[i]);
+                    }
+                }
+            }
+        }
+        return slowMoved;
+    }
+
+    /** Advance lanes 0 to LANES - 1 of COLUMNS for one keypress each,
+     *  as for step(POSNS), where COLUMNS[I][LANE] is the setting of slot
+     *  I in lane LANE, as kept by Lanes.  A quiet keypress touches only
+     *  the rightmost slot; otherwise the lane's settings are stepped as a
+     *  vector.  Allocates nothing. */
+    void step(int[][] columns, int lanes) {
+        boolean[][] notches = _notches;
+        int first = _first, last = _last, size = _size;
+        int[] fast = columns[last];
+        int move = _rotates[last] ? 1 : 0;
+        int[] posns = _column;
+        for (int lane = 0; lane < lanes; lane++) {
+            boolean quiet = true;
+            for (int i = first + 1; i <= last && quiet; i++) {
+                quiet = !notches[i][columns[i][lane]];
+            }
+            if (quiet) {
+                int next = fast[lane] + move;
+                fast[lane] = next == size ? 0 : next;
+                continue;
+            }
+            for (int i = 0; i <= last; i++) {
+                posns[i] = columns[i][lane];
+            }
+            step(posns);
+            for (int i = 0; i <= last; i++) {
+                columns[i][lane] = posns[i];
+            }
+        }
+    }
+
+    /** Advance POSNS by N keypresses.  Between events (keypresses that
+     *  move a rotor other than the rightmost one), only the rightmost
+     *  rotor moves, so each run of quiet keypresses is a single addition.
+     *  For large N, the period of the sequence of settings is found first,
+     *  or taken from an earlier jump, so the cost does not grow with N. */
+    void advance(int[] posns, long n) {
+        if (n < 0) {
+            throw error("cannot advance by %d", n);
+        }
+        if (n / _size < DIRECT_EVENTS) {
+            direct(posns, n);
+            return;
+        }
+        Orbit known = _orbit.get();
+        if (known != null && known._rules == _rules
+            && advance(known, posns, n)) {
+            return;
+        }
+        int[] tortoise = _tortoise, hare = _hare;
+        System.arraycopy(posns, 0, tortoise, 0, posns.length);
+        System.arraycopy(posns, 0, hare, 0, posns.length);
+        if (event(hare) < 0) {
+            direct(posns, n);
+            return;
+        }
+        long power = 1, period = 1;
+        while (!Arrays.equals(tortoise, hare)) {
+            if (power == period) {
+                System.arraycopy(hare, 0, tortoise, 0, hare.length);
+                power *= 2;
+                period = 0;
+            }
+            if (period > MAX_PERIOD_EVENTS || event(hare) < 0) {
+                direct(posns, n);
+                return;
+            }
+            period += 1;
+        }
+
+        System.arraycopy(posns, 0, tortoise, 0, posns.length);
+        System.arraycopy(posns, 0, hare, 0, posns.length);
+        for (long i = 0; i < period; i++) {
+            event(hare);
+        }
+        long lead = 0;
+        while (!Arrays.equals(tortoise, hare)) {
+            lead += event(tortoise);
+            event(hare);
+        }
+        boolean keep = _keyed && period <= MAX_ORBIT_EVENTS;
+        long[] keys = keep ? new long[(int) period] : null;
+        long[] offsets = keep ? new long[(int) period] : null;
+        long cycle = 0;
+        for (int i = 0; i < period; i++) {
+            if (keep) {
+                keys[i] = key(hare);
+                offsets[i] = cycle;
+            }
+            cycle += event(hare);
+        }
+        if (keep) {
+            _orbit.set(new Orbit(_rules, keys, offsets, cycle));
+        }
+        if (n > lead) {
+            n = lead + (n - lead) % cycle;
+        }
+        direct(posns, n);
+    }
+
+    /** Advance POSNS by N keypresses using ORBIT, if POSNS reaches it
+     *  within as many events as it has, returning true.  Otherwise,
+     *  return false and leave POSNS unchanged. */
+    private boolean advance(Orbit orbit, int[] posns, long n) {
+        int[] probe = _tortoise;
+        System.arraycopy(posns, 0, probe, 0, posns.length);
+        long lead = 0;
+        for (int e = 0; e <= orbit._keys.length; e++) {
+            long d = nextEvent(probe);
+            if (d == NEVER || lead + d + 1 > n) {
+                return false;
+            }
+            jump(probe, d);
+            step(probe);
+            lead += d + 1;
+            int i = orbit.indexOf(key(probe));
+            if (i >= 0) {
+                long t = orbit._offsets[i] + (n - lead) % orbit._cycle;
+                if (t >= orbit._cycle) {
+                    t -= orbit._cycle;
+                }
+                int j = Arrays.binarySearch(orbit._offsets, t);
+                if (j < 0) {
+                    j = -j - 2;
+                }
+                unkey(orbit._keys[j], posns);
+                direct(posns, t - orbit._offsets[j]);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return POSNS as a number in base _size, the first slot most
+     *  significant.  Requires _keyed. */
+    private long key(int[] posns) {
+        long result = 0;
+        for (int posn : posns) {
+            result = result * _size + posn;
+        }
+        return result;
+    }
+
+    /** Set POSNS to the settings whose key is KEY. */
+    private void unkey(long key, int[] posns) {
+        for (int i = posns.length - 1; i >= 0; i -= 1) {
+            posns[i] = (int) (key % _size);
+            key /= _size;
+        }
+    }
+
+    /** Advance POSNS by N keypresses, one event at a time. */
+    private void direct(int[] posns, long n) {
+        while (n > 0) {
+            long d = nextEvent(posns);
+            if (d >= n) {
+                jump(posns, n);
+                return;
+            }
+            jump(posns, d);
+            step(posns);
+            n -= d + 1;
+        }
+    }
+
+    /** Advance POSNS through its next event, returning the number of
+     *  keypresses that took, or -1 (leaving POSNS unchanged) if there
+     *  will never be another event. */
+    private long event(int[] posns) {
+        long d = nextEvent(posns);
+        if (d == NEVER) {
+            return -1;
+        }
+        jump(posns, d);
+        step(posns);
+        return d + 1;
+    }
+
+    /** Return the number of quiet keypresses before the next event from
+     *  POSNS, or NEVER. */
+    long nextEvent(int[] posns) {
+        for (int i = _first + 1; i < _last; i++) {
+            if (_notches[i][posns[i]]) {
+                return 0;
+            }
+        }
+        if (_first < _last) {
+            return _distance[posns[_last]];
+        }
+        return NEVER;
+    }
+
+    /** Advance the rightmost rotor of POSNS by D quiet keypresses. */
+    private void jump(int[] posns, long d) {
+        if (_rotates[_last]) {
+            posns[_last] = (int) ((posns[_last] + d % _size) % _size);
+        }
+    }
+
+    /** A cycle of settings vectors: those just after each event of one
+     *  period, in order, with the keypresses from the first of them.
+     *  Immutable, so that Steppers in several threads may share it. */
+    private static final class Orbit {
+        /** A cycle under the stepping rules RULES whose vectors have keys
+         *  KEYS, reached after OFFSETS keypresses from the first, which
+         *  take CYCLE keypresses to repeat. */
+        Orbit(long rules, long[] keys, long[] offsets, long cycle) {
+            _rules = rules;
+            _keys = keys;
+            _offsets = offsets;
+            _cycle = cycle;
+            _slots = new int[Integer.highestOneBit(keys.length * 2 - 1)
+                             << 1];
+            Arrays.fill(_slots, -1);
+            for (int i = 0; i < keys.length; i++) {
+                int h = slot(keys[i]);
+                while (_slots[h] >= 0) {
+                    h = (h + 1) & (_slots.length - 1);
+                }
+                _slots[h] = i;
+            }
+        }
+
+        /** Return the index of the vector whose key is KEY, or -1. */
+        private int indexOf(long key) {
+            for (int h = slot(key); _slots[h] >= 0;
+                 h = (h + 1) & (_slots.length - 1)) {
+                if (_keys[_slots[h]] == key) {
+                    return _slots[h];
+                }
+            }
+            return -1;
+        }
+
+        /** Return the first slot of _slots to probe for KEY. */
+        private int slot(long key) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 32) & (_slots.length - 1);
+        }
+
+        /** Identifier of the stepping rules I follow. */
+        private final long _rules;
+        /** Keys of the vectors, in order. */
+        private final long[] _keys;
+        /** Keypresses from the first vector to each. */
+        private final long[] _offsets;
+        /** Keypresses in one period. */
+        private final long _cycle;
+        /** Open-addressed index of _keys: indices, or -1 if empty. */
+        private final int[] _slots;
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+    /** Slot of the leftmost pawl rotor. */
+    private final int _first;
+    /** Slot of the rightmost rotor. */
+    private final int _last;
+    /** _rotates[i] is true iff the rotor in slot I can move. */
+    private final boolean[] _rotates;
+    /** _notches[i][k] is true iff the rotor in slot I has a notch at
+     *  setting K. */
+    private final boolean[][] _notches;
+    /** _distance[k] is the number of keypresses from setting K of the
+     *  rightmost rotor until it is at a notch, or NEVER. */
+    private final long[] _distance;
+    /** Scratch flags marking the slots that advance on a keypress. */
+    private final boolean[] _steps;
+    /** Scratch settings of one lane, for step(COLUMNS, LANES). */
+    private final int[] _column;
+    /** True iff settings vectors fit in a long, as key() needs. */
+    private final boolean _keyed;
+    /** The cycle of settings last found by advance() by me or a Stepper
+     *  sharing it with me, or null.  Used only if it follows _rules. */
+    private final AtomicReference<Orbit> _orbit;
+    /** Identifier of my current stepping rules, shared with copies made
+     *  before they change. */
+    private long _rules;
+    /** Scratch settings vectors for finding the stepping period. */
+    private final int[] _tortoise, _hare;
+}
@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -127,4 +129,25 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** Notches of the naval moving rotors. */
+    static final String[][] NOTCHES = {
+        {"I", "Q"}, {"II", "E"}, {"III", "V"}, {"IV", "J"}, {"V", "Z"},
+        {"VI", "ZM"}, {"VII", "ZM"}, {"VIII", "ZM"},
+    };
+
+    /** Return the naval rotors, with upper-case names. */
+    static List<Rotor> navalRotors() {
+        List<Rotor> rotors = new ArrayList<>();
+        for (String[] rotor : NOTCHES) {
+            rotors.add(new MovingRotor(rotor[0],
+                    new Permutation(NAVALA.get(rotor[0]), UPPER), rotor[1]));
+        }
+        rotors.add(new FixedRotor("BETA",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new FixedRotor("GAMMA",
+                new Permutation(NAVALA.get("Gamma"), UPPER)));
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new Reflector("C", new Permutation(NAVALA.get("C"), UPPER)));
+        return rotors;
+    }
 }
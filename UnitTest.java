@@ -10,7 +10,15 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          AlphabetTest.class, MachineTest.class,
+                          MessageStreamTest.class, ParallelMachineTest.class,
+                          EnigmaServerTest.class, KeySearchTest.class,
+                          PlugboardClimberTest.class, BombeTest.class,
+                          NGramsTest.class, LanesTest.class,
+                          ConfigImageTest.class, ConfigParserTest.class,
+                          ByteMachineTest.class, MappedMainTest.class,
+                          BatchProcessorTest.class);
     }
 
 }
@@ -0,0 +1,94 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Lanes whose rotor passes use the Vector API: for each rotor, the
+ *  table indices of a vector's worth of lanes are computed with one
+ *  multiply-add and the conversions loaded with one gather.  Lanes left
+ *  over when the number of lanes is not a multiple of the vector length,
+ *  and machines whose rotors are not compiled to tables, are handled by
+ *  the scalar code of Lanes.
+ *  <p>
+ *  The Vector API is incubating, so this class is kept out of the
+ *  default build.  "make vector" compiles it; it is then used by
+ *  Lanes.create in JVMs run with --add-modules jdk.incubator.vector.
+ *  @author Mohammed Abu-Sharkh
+ */
+class VectorLanes extends Lanes {
+
+    /** Vector shape used for lanes. */
+    static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /** LANES copies of TEMPLATE's rotors and plugboard, as for Lanes. */
+    VectorLanes(Machine template, int lanes) {
+        super(template, lanes);
+        int n = _specs.length;
+        _forward = new int[n][];
+        _backward = new int[n][];
+        boolean compiled = true;
+        for (int i = 0; i < n; i++) {
+            _forward[i] = _specs[i].forwardTable();
+            _backward[i] = _specs[i].backwardTable();
+            compiled &= _forward[i] != null
+                && (i == 0 || _backward[i] != null);
+        }
+        _compiled = compiled;
+        _index = new int[lanes];
+    }
+
+    @Override
+    void path(int[] c) {
+        int lanes = _lanes;
+        int bound = SPECIES.loopBound(lanes);
+        if (!_compiled || bound == 0) {
+            super.path(c);
+            return;
+        }
+        int n = _specs.length;
+        for (int lane = 0; lane < bound; lane += SPECIES.length()) {
+            gather(_plugboard, c, lane);
+            for (int i = n - 1; i > -1; i -= 1) {
+                rotor(_forward[i], _posns[i], c, lane);
+            }
+            for (int i = 1; i < n; i += 1) {
+                rotor(_backward[i], _posns[i], c, lane);
+            }
+            gather(_plugboard, c, lane);
+        }
+        for (int lane = bound; lane < lanes; lane++) {
+            int ch = _plugboard[c[lane]];
+            for (int i = n - 1; i > -1; i -= 1) {
+                ch = _forward[i][_posns[i][lane] * _size + ch];
+            }
+            for (int i = 1; i < n; i += 1) {
+                ch = _backward[i][_posns[i][lane] * _size + ch];
+            }
+            c[lane] = _plugboard[ch];
+        }
+    }
+
+    /** Replace the vector of C starting at LANE by the entries of TABLE
+     *  it indexes. */
+    private static void gather(int[] table, int[] c, int lane) {
+        IntVector.fromArray(SPECIES, table, 0, c, lane).intoArray(c, lane);
+    }
+
+    /** Replace the vector of C starting at LANE by its conversions
+     *  through the rotor whose conversion table is TABLE, at the
+     *  settings in POSNS. */
+    private void rotor(int[] table, int[] posns, int[] c, int lane) {
+        IntVector.fromArray(SPECIES, posns, lane).mul(_size)
+            .add(IntVector.fromArray(SPECIES, c, lane))
+            .intoArray(_index, lane);
+        IntVector.fromArray(SPECIES, table, 0, _index, lane)
+            .intoArray(c, lane);
+    }
+
+    /** Forward and backward conversion tables, by slot. */
+    private final int[][] _forward, _backward;
+    /** True iff every rotor has its tables. */
+    private final boolean _compiled;
+    /** Scratch table indices, one per lane. */
+    private final int[] _index;
+}